@@ -0,0 +1,161 @@
+package org.usfirst.frc.team217.robot;
+
+import edu.wpi.first.wpilibj.Notifier;
+
+/**
+ * A Notifier for calling processMotionProfileBuffer() that picks its own
+ * period instead of always running at 1ms.
+ *
+ * The rule of thumb is to pump at least twice as fast as the trajectory points
+ * fire, so the period follows half the shortest point duration being streamed.
+ * If the bottom buffer is running low while the top buffer still has points,
+ * the pump is not keeping up and the period is halved until it has recovered
+ * to twice that. When
+ * nothing is streaming the pump idles at {@value #kMaxPeriodMs}ms.
+ *
+ * Also keeps track of how late or early each call is compared to the period,
+ * which is a good indication of how loaded the roboRIO is.
+ */
+public class AdaptivePump {
+
+	/** Fastest and slowest the pump will run. */
+	public static final int kMinPeriodMs = 1;
+	public static final int kMaxPeriodMs = 10;
+	/**
+	 * Below this many points in the bottom buffer (with more waiting in the
+	 * top buffer), pump faster.
+	 */
+	public static final int kLowWaterPoints = 20;
+
+	private final Runnable body;
+	/** null when the owner calls runOnce() itself. */
+	private final Notifier notifier;
+
+	/** Period the notifier is running at, 0 if it hasn't been started. */
+	private volatile int periodMs = 0;
+
+	/** Jitter bookkeeping, only touched by the notifier thread. */
+	private long lastCallNs = 0;
+	private double jitterSumMs = 0;
+	private long jitterCnt = 0;
+	private double jitterMaxMs = 0;
+	private volatile boolean resetJitter = false;
+
+	/** Jitter published for other threads. */
+	private volatile double meanJitterMs = 0;
+	private volatile double maxJitterMs = 0;
+
+	/**
+	 * @param body
+	 *            what to run every period
+	 */
+	public AdaptivePump(Runnable body) {
+		this(body, true);
+	}
+
+	/**
+	 * @param body
+	 *            what to run every period
+	 * @param useNotifier
+	 *            false to not create a Notifier, for running off the robot.
+	 *            The owner then calls {@link #runOnce()} every
+	 *            {@link #getPeriodMs()} itself.
+	 */
+	public AdaptivePump(Runnable body, boolean useNotifier) {
+		this.body = body;
+		notifier = useNotifier ? new Notifier(this::run) : null;
+	}
+
+	/**
+	 * Start (or restart) pumping at a fixed period.
+	 *
+	 * @param periodMs
+	 *            period in ms
+	 */
+	public void start(int periodMs) {
+		this.periodMs = periodMs;
+		resetJitter = true;
+		if (notifier != null)
+			notifier.startPeriodic(periodMs / 1000.0);
+	}
+
+	/**
+	 * Run the body once, for owners pumping without a Notifier. Jitter is not
+	 * tracked for these calls.
+	 */
+	public void runOnce() {
+		body.run();
+	}
+
+	/**
+	 * Pick the period from what is being streamed. Call every loop.
+	 *
+	 * @param durationMs
+	 *            shortest point duration being streamed, or 0 if nothing is
+	 * @param topBufferCnt
+	 *            points waiting in the top buffer (lowest of all Talons)
+	 * @param btmBufferCnt
+	 *            points in the bottom buffer (lowest of all Talons)
+	 * @return true if the period changed, so the caller can match the Talons'
+	 *         control frame period to it
+	 */
+	public boolean update(int durationMs, int topBufferCnt, int btmBufferCnt) {
+		int newPeriodMs;
+		if (durationMs <= 0) {
+			/* idle */
+			newPeriodMs = kMaxPeriodMs;
+		} else {
+			newPeriodMs = durationMs / 2;
+			if (topBufferCnt > 0 && btmBufferCnt < kLowWaterPoints) {
+				/* falling behind, catch up */
+				newPeriodMs = Math.min(newPeriodMs, periodMs / 2);
+			} else if (topBufferCnt > 0 && btmBufferCnt < 2 * kLowWaterPoints) {
+				/* recovering, don't slow back down yet */
+				newPeriodMs = Math.min(newPeriodMs, periodMs);
+			}
+			newPeriodMs = Math.max(kMinPeriodMs, Math.min(kMaxPeriodMs, newPeriodMs));
+		}
+		if (newPeriodMs == periodMs) {
+			return false;
+		}
+		start(newPeriodMs);
+		return true;
+	}
+
+	/** @return period the pump is running at in ms */
+	public int getPeriodMs() {
+		return periodMs;
+	}
+
+	/** @return average distance of the call period from the set period, in ms */
+	public double getMeanJitterMs() {
+		return meanJitterMs;
+	}
+
+	/** @return largest distance of the call period from the set period, in ms */
+	public double getMaxJitterMs() {
+		return maxJitterMs;
+	}
+
+	private void run() {
+		long now = System.nanoTime();
+		if (resetJitter) {
+			/* period just changed, start over */
+			resetJitter = false;
+			jitterSumMs = 0;
+			jitterCnt = 0;
+			jitterMaxMs = 0;
+		} else if (lastCallNs != 0) {
+			double jitterMs = Math.abs((now - lastCallNs) / 1e6 - periodMs);
+			jitterSumMs += jitterMs;
+			++jitterCnt;
+			if (jitterMs > jitterMaxMs)
+				jitterMaxMs = jitterMs;
+			meanJitterMs = jitterSumMs / jitterCnt;
+			maxJitterMs = jitterMaxMs;
+		}
+		lastCallNs = now;
+
+		body.run();
+	}
+}
@@ -24,6 +24,25 @@ public class Constants {
 	 * now we just want the primary one.
 	 */
 	public static final int kPIDLoopIdx = 0;
+
+	/**
+	 * For arc profiles, the heading loop is the auxiliary PID (loop 1) and
+	 * pulls its gains from slot 1.
+	 */
+	public static final int kArcPIDLoopIdx = 1;
+	public static final int kArcSlotIdx = 1;
+
+	/** CAN ID of the Pigeon the Talons use as a remote sensor for heading. */
+	public static final int kPigeonID = 0;
+
+	/** Pigeon yaw as a remote sensor is 8192 units per rotation. */
+	public static final double kPigeonUnitsPerRotation = 8192;
+	/**
+	 * Heading loop units, scaled from the Pigeon's with a feedback
+	 * coefficient so they're tenths of a degree.
+	 */
+	public static final double kTurnUnitsPerRotation = 3600;
+	public static final double kTurnUnitsPerDegree = kTurnUnitsPerRotation / 360;
 	/**
 	 * set to zero to skip waiting for confirmation, set to nonzero to wait and
 	 * report to DS if action fails.
@@ -36,6 +55,12 @@ public class Constants {
 	 */
 	public static final int kBaseTrajPeriodMs = 0;
 
+	/**
+	 * Duration of each point of moves generated at runtime, the same as the
+	 * spreadsheet's.
+	 */
+	public static final int kProfileDurationMs = 10;
+
 	/**
 	 * Motor deadband, set to 1%.
 	 */
@@ -19,7 +19,11 @@
  * 
  * ...where the columns are reprinted occasionally so you know whats up.
  * 
- * 
+ * Printing is slow and System.out.format boxes every value, so none of it happens
+ * on the thread calling process().  That thread only copies the raw fields into a
+ * preallocated ring of rows, and a low priority thread formats and prints them.
+ * If the printing thread falls behind and the ring fills up, new rows are dropped
+ * (and counted) rather than making the caller wait.
  * 
  */
 package org.usfirst.frc.team217.robot;
@@ -33,65 +37,204 @@ public class Instrumentation {
 
 	private static final String[] _table = {" Dis ", " En  ", "Hold "};
 
+	/** What each row in the ring is. */
+	private static final int kRowStatus = 0;
+	private static final int kRowUnderrun = 1;
+	private static final int kRowNoProgress = 2;
+	private static final int kRowUnderrunPredicted = 3;
+
+	/** Bits of _flags. */
+	private static final int kFlagValid = 1;
+	private static final int kFlagHasUnderrun = 2;
+	private static final int kFlagIsUnderrun = 4;
+	private static final int kFlagIsLast = 8;
+
+	/** How many rows fit in the ring, must be a power of two. */
+	private static final int kRingSize = 256;
+	private static final int kRingMask = kRingSize - 1;
+
+	/**
+	 * The ring, one array per column so nothing is allocated per row. Only
+	 * the control thread writes rows, and only the printing thread reads them.
+	 */
+	private static final int[] _kind = new int[kRingSize];
+	private static final int[] _outputEnable = new int[kRingSize];
+	private static final int[] _topBufferCnt = new int[kRingSize];
+	private static final int[] _topBufferRem = new int[kRingSize];
+	private static final int[] _btmBufferCnt = new int[kRingSize];
+	private static final int[] _flags = new int[kRingSize];
+	private static final double[] _pos = new double[kRingSize];
+	private static final double[] _vel = new double[kRingSize];
+	private static final int[] _profileSlotSelect = new int[kRingSize];
+	private static final int[] _timeDurMs = new int[kRingSize];
+
+	/**
+	 * Rows written and rows printed so far. A row's slot is its number masked
+	 * by kRingMask. Writing _head after the row publishes it to the printing
+	 * thread, writing _tail after printing hands the slot back.
+	 */
+	private static volatile long _head = 0;
+	private static volatile long _tail = 0;
+	/** Rows thrown away because the ring was full. */
+	private static volatile long _dropped = 0;
+
+	/** How long the printing thread sleeps once the ring is empty. */
+	private static final long kPrintPeriodMs = 20;
+
+	static {
+		Thread printer = new Thread(Instrumentation::printLoop, "Instrumentation");
+		printer.setDaemon(true);
+		printer.setPriority(Thread.MIN_PRIORITY);
+		printer.start();
+	}
+
 	public static void OnUnderrun() {
-		System.out.format("%s\n", "UNDERRUN");
+		record(kRowUnderrun, null, 0, 0);
 	}
 
 	public static void OnNoProgress() {
-		System.out.format("%s\n", "NOPROGRESS");
+		record(kRowNoProgress, null, 0, 0);
+	}
+
+	public static void OnUnderrunPredicted() {
+		record(kRowUnderrunPredicted, null, 0, 0);
 	}
 
-	static private String StrOutputEnable(SetValueMotionProfile sv) {
+	/** @return how many rows were dropped because printing fell behind */
+	public static long getDroppedRows() {
+		return _dropped;
+	}
+
+	static private String StrOutputEnable(int value) {
 		/* convert sv to string equiv */
-		if (sv == null)
+		if (value < 0)
 			return "null";
-		if (sv.value > 3)
+		if (value >= _table.length)
 			return "Inval";
-		return _table[sv.value];
+		return _table[value];
 	}
 
 	public static void process(MotionProfileStatus status, double pos,
 			double vel, double heading) {
-		double now = edu.wpi.first.wpilibj.Timer.getFPGATimestamp();
+		/* monotonic like the FPGA timestamp, but works off the robot too */
+		double now = System.nanoTime() / 1e9;
 
 		if ((now - timeout) > 0.2) {
 			timeout = now;
 			/* fire a loop every 200ms */
+			record(kRowStatus, status, pos, vel);
+		}
+	}
 
-			if (--count <= 0) {
-				count = 8;
-				/* every 8 loops, print our columns */
-
-				System.out.format("%-9s\t", "outEn");
-				System.out.format("%-9s\t", "topCnt");
-				System.out.format("%-9s\t", "topRem");
-				System.out.format("%-9s\t", "btmCnt");
-				System.out.format("%-9s\t", "IsValid");
-				System.out.format("%-9s\t", "HasUnder");
-				System.out.format("%-9s\t", "IsUnder");
-				System.out.format("%-9s\t", "IsLast");
-				System.out.format("%-9s\t", "targPos");
-				System.out.format("%-9s\t", "targVel");
-				System.out.format("%-9s\t", "SlotSel0");
-				System.out.format("%-9s\t", "timeDurMs");
-
-				System.out.format("\n");
+	/**
+	 * Copy a row into the ring. Never blocks, drops the row if the printing
+	 * thread hasn't caught up.
+	 */
+	private static void record(int kind, MotionProfileStatus status, double pos, double vel) {
+		long head = _head;
+		if (head - _tail >= kRingSize) {
+			++_dropped;
+			return;
+		}
+		int i = (int) (head & kRingMask);
+		_kind[i] = kind;
+		if (status != null) {
+			fill(i, status, pos, vel);
+		}
+		/* publish */
+		_head = head + 1;
+	}
+
+	/**
+	 * Copy a status into slot i of the ring. This is all process() costs the
+	 * caller when it does record, package-private so StreamingBenchmark can
+	 * time it without the 200ms rate limit.
+	 */
+	static void fill(int i, MotionProfileStatus status, double pos, double vel) {
+		_outputEnable[i] = (status.outputEnable == null) ? -1 : status.outputEnable.value;
+		_topBufferCnt[i] = status.topBufferCnt;
+		_topBufferRem[i] = status.topBufferRem;
+		_btmBufferCnt[i] = status.btmBufferCnt;
+		_flags[i] = (status.activePointValid ? kFlagValid : 0)
+				| (status.hasUnderrun ? kFlagHasUnderrun : 0)
+				| (status.isUnderrun ? kFlagIsUnderrun : 0)
+				| (status.isLast ? kFlagIsLast : 0);
+		_pos[i] = pos;
+		_vel[i] = vel;
+		_profileSlotSelect[i] = status.profileSlotSelect;
+		_timeDurMs[i] = status.timeDurMs;
+	}
+
+	/** Body of the printing thread. */
+	private static void printLoop() {
+		long droppedReported = 0;
+		while (true) {
+			long tail = _tail;
+			while (tail < _head) {
+				print((int) (tail & kRingMask));
+				/* hand the slot back */
+				_tail = ++tail;
+			}
+			long dropped = _dropped;
+			if (dropped != droppedReported) {
+				System.out.format("DROPPED %d rows\n", dropped - droppedReported);
+				droppedReported = dropped;
+			}
+			try {
+				Thread.sleep(kPrintPeriodMs);
+			} catch (InterruptedException e) {
+				return;
 			}
-			/* every loop, print our values */
-			System.out.format("%-9s\t", StrOutputEnable(status.outputEnable));
-			System.out.format("%-9s\t", status.topBufferCnt);
-			System.out.format("%-9s\t", status.topBufferRem);
-			System.out.format("%-9s\t", status.btmBufferCnt);
-			System.out.format("%-9s\t", (status.activePointValid ? "1" : ""));
-			System.out.format("%-9s\t", (status.hasUnderrun ? "1" : ""));
-			System.out.format("%-9s\t", (status.isUnderrun ? "1" : ""));
-			System.out.format("%-9s\t", (status.isLast ? "1" : ""));
-			System.out.format("%-9s\t", pos);
-			System.out.format("%-9s\t", vel);
-			System.out.format("%-9s\t", status.profileSlotSelect);
-			System.out.format("%-9s\t", status.timeDurMs);
+		}
+	}
+
+	private static void print(int i) {
+		switch (_kind[i]) {
+			case kRowUnderrun:
+				System.out.format("%s\n", "UNDERRUN");
+				return;
+			case kRowNoProgress:
+				System.out.format("%s\n", "NOPROGRESS");
+				return;
+			case kRowUnderrunPredicted:
+				System.out.format("%s\n", "UNDERRUN PREDICTED");
+				return;
+		}
+
+		if (--count <= 0) {
+			count = 8;
+			/* every 8 loops, print our columns */
+
+			System.out.format("%-9s\t", "outEn");
+			System.out.format("%-9s\t", "topCnt");
+			System.out.format("%-9s\t", "topRem");
+			System.out.format("%-9s\t", "btmCnt");
+			System.out.format("%-9s\t", "IsValid");
+			System.out.format("%-9s\t", "HasUnder");
+			System.out.format("%-9s\t", "IsUnder");
+			System.out.format("%-9s\t", "IsLast");
+			System.out.format("%-9s\t", "targPos");
+			System.out.format("%-9s\t", "targVel");
+			System.out.format("%-9s\t", "SlotSel0");
+			System.out.format("%-9s\t", "timeDurMs");
 
 			System.out.format("\n");
 		}
+		/* every loop, print our values */
+		int flags = _flags[i];
+		System.out.format("%-9s\t", StrOutputEnable(_outputEnable[i]));
+		System.out.format("%-9s\t", _topBufferCnt[i]);
+		System.out.format("%-9s\t", _topBufferRem[i]);
+		System.out.format("%-9s\t", _btmBufferCnt[i]);
+		System.out.format("%-9s\t", ((flags & kFlagValid) != 0 ? "1" : ""));
+		System.out.format("%-9s\t", ((flags & kFlagHasUnderrun) != 0 ? "1" : ""));
+		System.out.format("%-9s\t", ((flags & kFlagIsUnderrun) != 0 ? "1" : ""));
+		System.out.format("%-9s\t", ((flags & kFlagIsLast) != 0 ? "1" : ""));
+		System.out.format("%-9s\t", _pos[i]);
+		System.out.format("%-9s\t", _vel[i]);
+		System.out.format("%-9s\t", _profileSlotSelect[i]);
+		System.out.format("%-9s\t", _timeDurMs[i]);
+
+		System.out.format("\n");
 	}
 }
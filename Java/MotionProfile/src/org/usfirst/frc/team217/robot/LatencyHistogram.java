@@ -0,0 +1,116 @@
+package org.usfirst.frc.team217.robot;
+
+/**
+ * Histogram of latencies that can be recorded into from a control loop
+ * without allocating.
+ *
+ * Buckets are log-linear: every power of two of microseconds is split into
+ * four, so any percentile read back is within 25% of the real value, from 1us
+ * up to about half an hour.
+ */
+public class LatencyHistogram {
+
+	/** Four buckets per power of two up to 2^31us. */
+	private static final int kBuckets = 4 * 31;
+
+	private final String name;
+	private final long[] counts = new long[kBuckets];
+	private long count = 0;
+	private long sumUs = 0;
+	private long minUs = Long.MAX_VALUE;
+	private long maxUs = 0;
+
+	/**
+	 * @param name
+	 *            what is being measured, for printing
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param ns
+	 *            latency in ns, negative values count as 0
+	 */
+	public void record(long ns) {
+		long us = Math.max(0, ns / 1000);
+		++counts[bucket(us)];
+		++count;
+		sumUs += us;
+		minUs = Math.min(minUs, us);
+		maxUs = Math.max(maxUs, us);
+	}
+
+	public void reset() {
+		java.util.Arrays.fill(counts, 0);
+		count = 0;
+		sumUs = 0;
+		minUs = Long.MAX_VALUE;
+		maxUs = 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** @return how many latencies were recorded */
+	public long getCount() {
+		return count;
+	}
+
+	public long getMinUs() {
+		return (count == 0) ? 0 : minUs;
+	}
+
+	public long getMaxUs() {
+		return maxUs;
+	}
+
+	public long getMeanUs() {
+		return (count == 0) ? 0 : sumUs / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            in [0,100]
+	 * @return latency in us that this percentile of recordings was at or
+	 *         under, rounded up to the top of its bucket
+	 */
+	public long getPercentileUs(double percentile) {
+		if (count == 0)
+			return 0;
+		long target = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int b = 0; b < kBuckets; ++b) {
+			seen += counts[b];
+			if (seen >= Math.max(1, target)) {
+				return Math.min(maxUs, lowerBound(b + 1) - 1);
+			}
+		}
+		return maxUs;
+	}
+
+	/** Buckets 0-3 hold 0-3us exactly, after that four per power of two. */
+	static int bucket(long us) {
+		if (us < 4)
+			return (int) us;
+		int exp = 63 - Long.numberOfLeadingZeros(us);
+		int sub = (int) ((us >>> (exp - 2)) & 3);
+		return Math.min(kBuckets - 1, 4 * (exp - 1) + sub);
+	}
+
+	/** @return smallest latency in us that lands in bucket b */
+	static long lowerBound(int b) {
+		if (b < 4)
+			return b;
+		int exp = b / 4 + 1;
+		return (long) (4 + b % 4) << (exp - 2);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-22s n=%-5d min=%.1fms mean=%.1fms p50=%.1fms p95=%.1fms max=%.1fms", name, count,
+				getMinUs() / 1e3, getMeanUs() / 1e3, getPercentileUs(50) / 1e3, getPercentileUs(95) / 1e3,
+				getMaxUs() / 1e3);
+	}
+}
@@ -0,0 +1,245 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+
+/**
+ * A Path that was generated ahead of time by {@link PathCompiler} and is read
+ * straight out of a memory mapped file, so booting the robot does not have to
+ * run Pathfinder at all.
+ *
+ * The file is laid out column by column so each column can be viewed in place
+ * without parsing anything:
+ *
+ * <pre>
+ * int magic, int version, int count, byte key[64] (ASCII)
+ * left:  double position[count] (ft), velocity[count] (ft/sec), dt[count] (sec), heading[count] (rad), x[count] (ft), y[count] (ft)
+ * right: double position[count] (ft), velocity[count] (ft/sec), dt[count] (sec), heading[count] (rad), x[count] (ft), y[count] (ft)
+ * </pre>
+ *
+ * The columns are in the same units as {@link Path#getLeftArray()} rather than
+ * Talon units, so changing the wheel diameter or encoder does not silently
+ * invalidate compiled paths. The key is the {@link Path#getKey()} of the path
+ * it was compiled from, so a file left over from before the path's waypoints
+ * or config changed is not run.
+ */
+public class MappedPath extends Path {
+
+	/** "MPTJ", so we don't map something that isn't a trajectory file. */
+	public static final int MAGIC = 0x4D50544A;
+	/** 2 added x and y, for replanning from the middle of a path. 3 added the key. */
+	public static final int VERSION = 3;
+	/** Bytes in the key, a hex SHA-256 from PathCache. */
+	public static final int KEY_SIZE = 64;
+	/** Bytes before the first column: magic, version, count and key. */
+	public static final int HEADER_SIZE = 3 * 4 + KEY_SIZE;
+	/** Columns per side: position, velocity, dt, heading, x and y. */
+	public static final int COLUMNS = 6;
+
+	/** Where PathCompiler output gets deployed to on the roboRIO. */
+	public static final String DEPLOY_DIR = "/home/lvuser/paths";
+	public static final String EXTENSION = ".traj";
+
+	private final int count;
+	private final String key;
+	private final DoubleBuffer[] left = new DoubleBuffer[COLUMNS];
+	private final DoubleBuffer[] right = new DoubleBuffer[COLUMNS];
+
+	/** Only built if somebody asks for them. */
+	private TrajectoryBuffer leftBuffer;
+	private TrajectoryBuffer rightBuffer;
+	private final Object leftLock = new Object();
+	private final Object rightLock = new Object();
+	private double[][] leftArray;
+	private double[][] rightArray;
+	private Trajectory leftTrajectory;
+	private Trajectory rightTrajectory;
+
+	/**
+	 * Map a trajectory file written by {@link PathCompiler}.
+	 *
+	 * @param file
+	 *            file to map
+	 * @throws IOException
+	 *             if the file can't be read or isn't a trajectory file
+	 */
+	public MappedPath(File file) throws IOException {
+		MappedByteBuffer buf;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			/* the mapping stays valid after the channel is closed */
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buf.order(ByteOrder.BIG_ENDIAN);
+
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a trajectory file");
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException(file + " is version " + buf.getInt(4) + ", expected " + VERSION);
+		}
+		count = buf.getInt(8);
+		if (buf.capacity() != HEADER_SIZE + 2 * COLUMNS * count * 8) {
+			throw new IOException(file + " is truncated");
+		}
+		byte[] keyBytes = new byte[KEY_SIZE];
+		buf.position(3 * 4);
+		buf.get(keyBytes);
+		key = new String(keyBytes, StandardCharsets.US_ASCII);
+
+		buf.position(HEADER_SIZE);
+		DoubleBuffer all = buf.asDoubleBuffer();
+		for (int c = 0; c < COLUMNS; ++c) {
+			left[c] = column(all, c);
+			right[c] = column(all, COLUMNS + c);
+		}
+	}
+
+	private DoubleBuffer column(DoubleBuffer all, int c) {
+		all.limit((c + 1) * count);
+		all.position(c * count);
+		DoubleBuffer col = all.slice();
+		all.clear();
+		return col;
+	}
+
+	/**
+	 * Map the compiled version of a path if it was deployed and compiled from
+	 * the path as it is now, otherwise fall back to generating it here.
+	 *
+	 * @param name
+	 *            class name the path was compiled under
+	 * @param key
+	 *            {@link Path#getKey()} of the path as it is now, which the
+	 *            compiled file has to match
+	 * @param generator
+	 *            used when there is no compiled file (or it is unreadable, or
+	 *            out of date)
+	 * @return the path
+	 */
+	public static Path load(String name, String key, Supplier<Path> generator) {
+		File file = new File(DEPLOY_DIR, name + EXTENSION);
+		if (file.exists()) {
+			try {
+				MappedPath mapped = new MappedPath(file);
+				if (mapped.getKey().equals(key))
+					return mapped;
+				DriverStation.reportWarning(file + " was compiled from a different " + name + ", generating it on the robot",
+						false);
+			} catch (IOException e) {
+				DriverStation.reportError("Could not map " + file + ": " + e.getMessage(), false);
+			}
+		} else {
+			DriverStation.reportWarning(file + " not deployed, generating " + name + " on the robot", false);
+		}
+		return generator.get();
+	}
+
+	/** @return number of points in each side */
+	public int length() {
+		return count;
+	}
+
+	/** @return key of the path this was compiled from */
+	@Override
+	public String getKey() {
+		return key;
+	}
+
+	@Override
+	public synchronized Trajectory getLeftTrajectory() {
+		if (leftTrajectory == null)
+			leftTrajectory = toTrajectory(left);
+		return leftTrajectory;
+	}
+
+	@Override
+	public synchronized Trajectory getRightTrajectory() {
+		if (rightTrajectory == null)
+			rightTrajectory = toTrajectory(right);
+		return rightTrajectory;
+	}
+
+	@Override
+	public synchronized double[][] getLeftArray() {
+		if (leftArray == null)
+			leftArray = toArray(left);
+		return leftArray;
+	}
+
+	@Override
+	public synchronized double[][] getRightArray() {
+		if (rightArray == null)
+			rightArray = toArray(right);
+		return rightArray;
+	}
+
+	/**
+	 * Converted straight from the mapped columns, without building the arrays
+	 * or trajectories. The sides can be converted at the same time, the
+	 * columns are only read with absolute gets.
+	 */
+	@Override
+	public TrajectoryBuffer getLeftBuffer() {
+		synchronized (leftLock) {
+			if (leftBuffer == null)
+				leftBuffer = toBuffer(left);
+			return leftBuffer;
+		}
+	}
+
+	@Override
+	public TrajectoryBuffer getRightBuffer() {
+		synchronized (rightLock) {
+			if (rightBuffer == null)
+				rightBuffer = toBuffer(right);
+			return rightBuffer;
+		}
+	}
+
+	private TrajectoryBuffer toBuffer(DoubleBuffer[] side) {
+		TrajectoryBuffer buffer = new TrajectoryBuffer(count);
+		for (int i = 0; i < count; i++) {
+			buffer.add(MotionProfileRunner.ft2Units(side[0].get(i)),
+					MotionProfileRunner.fps2UnitsPerRev(side[1].get(i)),
+					(int) Math.round(side[2].get(i) * 1000),
+					Pathfinder.r2d(side[3].get(i)),
+					side[4].get(i),
+					side[5].get(i));
+		}
+		return buffer;
+	}
+
+	/** Rows of {position, velocity, dt}, the same as a generated path. */
+	private double[][] toArray(DoubleBuffer[] side) {
+		double[][] array = new double[count][];
+		for (int i = 0; i < count; i++) {
+			array[i] = new double[] {side[0].get(i), side[1].get(i), side[2].get(i)};
+		}
+		return array;
+	}
+
+	/**
+	 * Acceleration and jerk aren't compiled, so they are zero in these
+	 * segments.
+	 */
+	private Trajectory toTrajectory(DoubleBuffer[] side) {
+		Trajectory.Segment[] segments = new Trajectory.Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Trajectory.Segment(side[2].get(i), side[4].get(i), side[5].get(i),
+					side[0].get(i), side[1].get(i), 0, 0, side[3].get(i));
+		}
+		return new Trajectory(segments);
+	}
+}
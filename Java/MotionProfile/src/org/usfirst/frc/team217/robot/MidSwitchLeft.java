@@ -2,7 +2,6 @@ package org.usfirst.frc.team217.robot;
 import jaci.pathfinder.Pathfinder;
 import jaci.pathfinder.Trajectory;
 import jaci.pathfinder.Waypoint;
-import jaci.pathfinder.modifiers.TankModifier;
 
 /**
  * Trajectory from middle starting position to the left side of the switch.
@@ -14,14 +13,23 @@ public class MidSwitchLeft extends Path {
 	Trajectory.Config config;
 	Waypoint[] points;
     Trajectory trajectory;
-    TankModifier modifier;
     Trajectory left;
     Trajectory right;
     double[][] leftArray;
     double[][] rightArray;
 	
-    public MidSwitchLeft() {
-    	
+	/** Wheelbase Width (feet) */
+	static final double kWheelbaseWidth = 1.865;
+
+	/**
+	 * @return PathCache key of this path, worked out without generating it,
+	 *         to check a compiled file against
+	 */
+	public static String key() {
+		return PathCache.key(waypoints(), config(), kWheelbaseWidth);
+	}
+
+    static Trajectory.Config config() {
     	// Create the Trajectory Configuration
     	//
     	// Arguments:
@@ -33,44 +41,42 @@ public class MidSwitchLeft extends Path {
     	// Max Velocity:        1.7 m/s
     	// Max Acceleration:    2.0 m/s/s
     	// Max Jerk:            60.0 m/s/s/s
-    	config = new Trajectory.Config(Trajectory.FitMethod.HERMITE_CUBIC,
+    	return new Trajectory.Config(Trajectory.FitMethod.HERMITE_CUBIC,
     			Trajectory.Config.SAMPLES_FAST, 0.05, 0.8, 1, 60.0);
-    	
+    }
+
+    static Waypoint[] waypoints() {
     	// Create waypoints (knots of the Hermite spline).
     	// First point is the starting position, last point is the end.
     	// Angles are in radians
     	// Positive Y is to the right, positive X is forward
     	// TODO: Not actually real points for MidSwitchLeft right now
-    	points = new Waypoint[] {
+    	return new Waypoint[] {
 //    			new Waypoint(3.22, 13.23, 0),
 //    			new Waypoint(6, 15, Pathfinder.d2r(45)),
 //    			new Waypoint(11.67, 18.01, 0)
     			new Waypoint(0, 0, 0),
     			new Waypoint(100, 0, 0)
     	};
+    }
+	
+    public MidSwitchLeft() {
+    	config = config();
+    	points = waypoints();
     	
-    	trajectory = Pathfinder.generate(points, config);
-    	// Wheelbase Width (feet)
-    	modifier = new TankModifier(trajectory).modify(1.865);
+    	// Generated once and cached on disk, see PathCache
+    	PathCache.Trajectories generated = PathCache.generate(points, config, kWheelbaseWidth);
+    	// Retime so the config's limits hold for each side through the curves,
+    	// not just the center (see PathRetimer)
+    	Trajectory[] retimed = PathRetimer.retime(generated.center, generated.left, generated.right, 0,
+    			config.max_velocity, config.max_acceleration, config.dt);
+    	trajectory = retimed[PathRetimer.CENTER];
     	// Do something with the new Trajectories...
-    	left = modifier.getLeftTrajectory();
-    	right = modifier.getRightTrajectory();
-    	leftArray = new double[trajectory.length()][2];
-    	for (int i = 0; i < trajectory.length(); i++) {
-    		Trajectory.Segment seg = trajectory.get(i);
-    		double[] point = {seg.position, seg.velocity, seg.dt};
-    		leftArray[i] = point;
-    	}
-    	rightArray = new double[trajectory.length()][2];
-    	for (int i = 0; i < trajectory.length(); i++) {
-    		Trajectory.Segment seg = trajectory.get(i);
-    		double[] point = {seg.position, seg.velocity, seg.dt};
-    		rightArray[i] = point;
-    	}
-    	if (leftArray.length != rightArray.length) {
-    		System.out.println("HIFHLKHDSAGFO:ISDFGVSD:LKJHF UDSHOPJFZDHFRSHJFP:GHFSIOFSRHJGIOFSRJGRRF");
-    	}
-    	
+    	left = retimed[PathRetimer.LEFT];
+    	right = retimed[PathRetimer.RIGHT];
+    	// Each side from its own trajectory, so turns actually turn
+    	leftArray = toArray(left);
+    	rightArray = toArray(right);
     	
     	/* To print out points along trajectory...
     	 
@@ -104,4 +110,9 @@ public class MidSwitchLeft extends Path {
 	public double[][] getRightArray() {
 		return rightArray;
 	}
+
+	@Override
+	public String getKey() {
+		return PathCache.key(points, config, kWheelbaseWidth);
+	}
 }
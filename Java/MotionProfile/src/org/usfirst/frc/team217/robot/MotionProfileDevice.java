@@ -0,0 +1,42 @@
+package org.usfirst.frc.team217.robot;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * The calls MotionProfileRunner makes on a motor controller. The signatures
+ * match TalonSRX's, so {@link TalonSRXDevice} just passes them through, and
+ * {@link SimulatedTalon} can stand in for a Talon off the robot.
+ */
+public interface MotionProfileDevice {
+
+	ErrorCode changeMotionControlFramePeriod(int periodMs);
+
+	ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs);
+
+	ErrorCode getMotionProfileStatus(MotionProfileStatus statusToFill);
+
+	ErrorCode clearMotionProfileHasUnderrun(int timeoutMs);
+
+	ErrorCode pushMotionProfileTrajectory(TrajectoryPoint trajPt);
+
+	ErrorCode clearMotionProfileTrajectories();
+
+	int getMotionProfileTopLevelBufferCount();
+
+	void processMotionProfileBuffer();
+
+	ControlMode getControlMode();
+
+	int getActiveTrajectoryPosition();
+
+	int getActiveTrajectoryVelocity();
+
+	double getActiveTrajectoryHeading();
+
+	int getSelectedSensorPosition(int pidIdx);
+
+	int getSelectedSensorVelocity(int pidIdx);
+}
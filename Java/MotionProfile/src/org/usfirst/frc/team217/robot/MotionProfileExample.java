@@ -28,7 +28,6 @@ import com.ctre.phoenix.motorcontrol.ControlMode;
 import com.ctre.phoenix.motorcontrol.can.*;
 
 import edu.wpi.first.wpilibj.DriverStation;
-import edu.wpi.first.wpilibj.Notifier;
 import com.ctre.phoenix.motion.*;
 import com.ctre.phoenix.motion.TrajectoryPoint.TrajectoryDuration;
 
@@ -86,6 +85,8 @@ public class MotionProfileExample {
 	 * is about 20ms.
 	 */
 	private static final int kNumLoopsTimeout = 10;
+	/** Shortest point duration in the profile, what the pump period follows. */
+	private int _shortestDurationMs = 0;
 	
 	/**
 	 * Lets create a periodic task to funnel our trajectory points into our talon.
@@ -99,7 +100,12 @@ public class MotionProfileExample {
 	class PeriodicRunnable implements java.lang.Runnable {
 	    public void run() {  _talon.processMotionProfileBuffer();    }
 	}
-	Notifier _notifer = new Notifier(new PeriodicRunnable());
+	AdaptivePump _pump = new AdaptivePump(new PeriodicRunnable());
+
+	/** Moves planned at runtime, instead of the spreadsheet's. */
+	private ProfileGenerator _generator = new ProfileGenerator(ProfileGenerator.kDefaultCapacity);
+	/** True to fill from _generator, false for GeneratedMotionProfile. */
+	private boolean _bGenerated = false;
 	
 
 	/**
@@ -111,11 +117,11 @@ public class MotionProfileExample {
 	public MotionProfileExample(TalonSRX talon) {
 		_talon = talon;
 		/*
-		 * since our MP is 10ms per point, set the control frame rate and the
-		 * notifer to half that
+		 * start the pump idling, control() speeds it up to half the point
+		 * duration (5ms for our 10ms profile) once an MP is started
 		 */
-		_talon.changeMotionControlFramePeriod(5);
-		_notifer.startPeriodic(0.005);
+		_talon.changeMotionControlFramePeriod(AdaptivePump.kMaxPeriodMs);
+		_pump.start(AdaptivePump.kMaxPeriodMs);
 	}
 
 	/**
@@ -148,6 +154,11 @@ public class MotionProfileExample {
 		/* Get the motion profile status every loop */
 		_talon.getMotionProfileStatus(_status);
 
+		/* pump only as fast as the profile's points need */
+		if (_pump.update((_state != 0) ? _shortestDurationMs : 0, _status.topBufferCnt, _status.btmBufferCnt)) {
+			_talon.changeMotionControlFramePeriod(_pump.getPeriodMs());
+		}
+
 		/*
 		 * track time, this is rudimentary but that's okay, we just want to make
 		 * sure things never get stuck.
@@ -265,7 +276,10 @@ public class MotionProfileExample {
 	/** Start filling the MPs to all of the involved Talons. */
 	private void startFilling() {
 		/* since this example only has one talon, just update that one */
-		startFilling(GeneratedMotionProfile.Points, GeneratedMotionProfile.kNumPoints);
+		if (_bGenerated)
+			startFilling(_generator.getPoints(), _generator.getNumPoints());
+		else
+			startFilling(GeneratedMotionProfile.getPoints(), GeneratedMotionProfile.getNumPoints());
 	}
 
 	private void startFilling(double[][] profile, int totalCnt) {
@@ -291,6 +305,19 @@ public class MotionProfileExample {
 
 		/* set the base trajectory period to zero, use the individual trajectory period below */
 		_talon.configMotionProfileTrajectoryPeriod(Constants.kBaseTrajPeriodMs, Constants.kTimeoutMs);
+
+		/*
+		 * 0 means the base trajectory period, not a 0ms point, so skip those.
+		 * If nothing is left (or the profile is empty) follow the base period.
+		 */
+		_shortestDurationMs = Integer.MAX_VALUE;
+		for (int i = 0; i < totalCnt; ++i) {
+			int durationMs = (int)profile[i][2];
+			if (durationMs > 0 && durationMs < _shortestDurationMs)
+				_shortestDurationMs = durationMs;
+		}
+		if (_shortestDurationMs == Integer.MAX_VALUE)
+			_shortestDurationMs = Constants.kBaseTrajPeriodMs;
 		
 		/* This is fast since it's just into our TOP buffer */
 		for (int i = 0; i < totalCnt; ++i) {
@@ -319,6 +346,26 @@ public class MotionProfileExample {
 	 * able to).
 	 */
 	void startMotionProfile() {
+		_bGenerated = false;
+		_bStart = true;
+	}
+
+	/**
+	 * Called by application to plan a move now and start it like
+	 * startMotionProfile(), instead of running GeneratedMotionProfile.
+	 * 
+	 * @param distanceRot
+	 *            how far to move, in rotations
+	 * @param cruiseRPM
+	 *            fastest to go
+	 * @param accelRPMPerSec
+	 *            fastest to speed up or slow down
+	 * @param jerkRPMPerSec2
+	 *            fastest the acceleration may change, infinite for a trapezoid
+	 */
+	void startMotionProfile(double distanceRot, double cruiseRPM, double accelRPMPerSec, double jerkRPMPerSec2) {
+		_generator.sCurve(distanceRot, cruiseRPM, accelRPMPerSec, jerkRPMPerSec2, Constants.kProfileDurationMs);
+		_bGenerated = true;
 		_bStart = true;
 	}
 
@@ -0,0 +1,176 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.ctre.phoenix.motion.MotionProfileStatus;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Records what the motion profile executer is doing every loop, for looking at
+ * after a match. Instrumentation only prints a row every 200ms, which is not
+ * enough to see an underrun coming.
+ *
+ * Records go into a memory mapped file sized up front, so recording is a few
+ * puts into the mapping: no allocation and no blocking I/O (the OS writes the
+ * pages back on its own). Once the file is full further records are dropped
+ * and counted. Use {@link RecordingExporter} to turn a recording into CSV.
+ *
+ * <pre>
+ * header: int magic, int version, int recordSize, int count
+ * record: long timeNs, int device, int outputEnable, int topBufferCnt, int topBufferRem,
+ *         int btmBufferCnt, int flags, int timeDurMs, int profileSlotSelect,
+ *         double targPos, double targVel, double targHeading, int sensorPos, int sensorVel
+ * </pre>
+ */
+public class MotionProfileRecorder {
+
+	/** "MPRC" */
+	public static final int MAGIC = 0x4D505243;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 4 * 4;
+	public static final int RECORD_SIZE = 8 + 8 * 4 + 3 * 8 + 2 * 4;
+	/** Where the record count lives in the header. */
+	static final int COUNT_OFFSET = 12;
+
+	/** Bits of the flags field. */
+	public static final int FLAG_VALID = 1;
+	public static final int FLAG_HAS_UNDERRUN = 2;
+	public static final int FLAG_IS_UNDERRUN = 4;
+	public static final int FLAG_IS_LAST = 8;
+
+	public static final String EXTENSION = ".rec";
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buf;
+	private final int maxRecords;
+	private int count = 0;
+	private long dropped = 0;
+
+	/**
+	 * Create (or truncate) a recording.
+	 *
+	 * @param path
+	 *            file to record into
+	 * @param maxRecords
+	 *            most records the file can hold. A record is
+	 *            {@value #RECORD_SIZE} bytes, one per Talon per loop.
+	 * @throws IOException
+	 *             if the file can't be created or mapped
+	 */
+	public MotionProfileRecorder(File path, int maxRecords) throws IOException {
+		this.maxRecords = maxRecords;
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				HEADER_SIZE + (long) maxRecords * RECORD_SIZE);
+		buf.order(ByteOrder.BIG_ENDIAN);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(RECORD_SIZE);
+		buf.putInt(0);
+	}
+
+	/**
+	 * Record one Talon for this loop.
+	 *
+	 * @param timeNs
+	 *            when the status was read, in ns
+	 * @param device
+	 *            index of the Talon in the runner, see MotionProfileRunner.LEFT
+	 *            and RIGHT
+	 * @param status
+	 *            motion profile status
+	 * @param targPos
+	 *            active trajectory position
+	 * @param targVel
+	 *            active trajectory velocity
+	 * @param targHeading
+	 *            active trajectory heading
+	 * @param sensorPos
+	 *            selected sensor position
+	 * @param sensorVel
+	 *            selected sensor velocity
+	 */
+	public void record(long timeNs, int device, MotionProfileStatus status, double targPos, double targVel,
+			double targHeading, int sensorPos, int sensorVel) {
+		if (count == maxRecords) {
+			++dropped;
+			return;
+		}
+		buf.putLong(timeNs);
+		buf.putInt(device);
+		buf.putInt(status.outputEnable == null ? -1 : status.outputEnable.value);
+		buf.putInt(status.topBufferCnt);
+		buf.putInt(status.topBufferRem);
+		buf.putInt(status.btmBufferCnt);
+		buf.putInt((status.activePointValid ? FLAG_VALID : 0)
+				| (status.hasUnderrun ? FLAG_HAS_UNDERRUN : 0)
+				| (status.isUnderrun ? FLAG_IS_UNDERRUN : 0)
+				| (status.isLast ? FLAG_IS_LAST : 0));
+		buf.putInt(status.timeDurMs);
+		buf.putInt(status.profileSlotSelect);
+		buf.putDouble(targPos);
+		buf.putDouble(targVel);
+		buf.putDouble(targHeading);
+		buf.putInt(sensorPos);
+		buf.putInt(sensorVel);
+		/* bump the count last so a reader never sees half a record */
+		buf.putInt(COUNT_OFFSET, ++count);
+	}
+
+	/** @return records written so far */
+	public int getCount() {
+		return count;
+	}
+
+	/** @return records thrown away because the file was full */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Write what has been recorded so far to disk, so it survives the robot
+	 * being switched off. Recording can carry on after.
+	 */
+	public void force() {
+		buf.force();
+	}
+
+	/**
+	 * Delete all but the newest recordings in a directory, so they don't fill
+	 * up the roboRIO.
+	 *
+	 * @param dir
+	 *            directory holding the recordings
+	 * @param keep
+	 *            how many of the newest to keep
+	 */
+	public static void deleteOldRecordings(File dir, int keep) {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+		if (files == null || files.length <= keep) {
+			return;
+		}
+		/* newest first */
+		Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+		for (int i = keep; i < files.length; ++i) {
+			if (!files[i].delete()) {
+				DriverStation.reportWarning("Could not delete old recording " + files[i], false);
+			}
+		}
+	}
+
+	/**
+	 * Flush the recording to disk and close it. Don't record after this.
+	 */
+	public void close() throws IOException {
+		buf.force();
+		file.close();
+	}
+}
@@ -17,18 +17,48 @@
  * 
  * getControlMode, to check if we are in Motion Profile Control mode.
  * 
- * Example of advanced features not demonstrated here...
- * [1] Calling pushMotionProfileTrajectory() continuously while the Talon executes the motion profile, thereby keeping it going indefinitely.
- * [2] Instead of setting the sensor position to zero at the start of each MP, the program could offset the MP's position based on current position. 
+ * (plus the active trajectory and sensor getters for logging). They are all in MotionProfileDevice,
+ * so a SimulatedTalon can take the place of a Talon to run this off the robot, see MotionProfileSimulation.
+ * 
+ * Any number of Talons can be driven together, each with its own profile.  They share one state
+ * machine: every Talon's status is read once per loop, and the MP is only enabled (for all of them at
+ * once) when every Talon has enough points buffered, and only finishes when every Talon is on its last point.
+ * 
+ * The status reads are done by a StatusPoller on its own notifier, and control() picks up the newest
+ * snapshot without blocking, so the robot thread makes no CAN calls to check on the MP and every Talon's
+ * status in a loop was read in the same pass.  What control() needs of the stream the notifier publishes
+ * through volatile fields, so control() only waits on the notifier's lock to start an MP.
+ * 
+ * Unlike MotionProfileExample, points are streamed rather than pushed in one burst.  Only a window of
+ * {@value #kStreamWindow} points is kept in the Talon's top buffer, and the notifier tops it back up as
+ * the Talon drains it.  This means a profile can be any length (the top buffer only holds 2048 points)
+ * and the first points reach the CAN bus without waiting behind the whole profile.  For replanning,
+ * setReplanWindowMs() cuts the window down to a few loops' worth of time, see replaceMotionProfile().
+ * 
+ * Instead of setting the sensor position to zero at the start of each MP, setRelative(true) reads each
+ * Talon's position once when filling starts and offsets the MP's positions by it, so profiles can be run
+ * back to back without waiting for a sensor reset.
+ * 
+ * Profiles can also be queued behind the running one with queueMotionProfile().  A queued profile is
+ * streamed in right behind the current one, continuing from its last position, and the current one's
+ * last point is not flagged isLast, so the Talon goes from one to the next without a Hold in between.
+ * 
+ * With setArc(true) every point also carries the profile's heading, as the target of the Talon's
+ * auxiliary PID on the Pigeon's yaw (see Robot.configArc()), so heading is corrected on the Talon every
+ * 1ms instead of on the roboRIO every loop.  The Talons have to be in MotionProfileArc mode for that.
  */
 package org.usfirst.frc.team217.robot;
 
 
+import java.util.ArrayDeque;
+import java.util.function.LongSupplier;
+
 import com.ctre.phoenix.motorcontrol.ControlMode;
 import com.ctre.phoenix.motorcontrol.can.*;
 
 import edu.wpi.first.wpilibj.DriverStation;
-import edu.wpi.first.wpilibj.Notifier;
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Waypoint;
 import com.ctre.phoenix.motion.*;
 import com.ctre.phoenix.motion.TrajectoryPoint.TrajectoryDuration;
 
@@ -36,44 +66,185 @@ public class MotionProfileRunner {
 	
 	public static final double WHEEL_DIAMETER = 3.5; // inches
 	public static final int UNITS_PER_REVOLUTION = 4096; // encoder ticks
+
+	/**
+	 * Pathfinder's heading grows turning right (positive Y is to the right)
+	 * and the Pigeon's yaw grows turning left.
+	 */
+	private static final double kArcHeadingSign = -1;
+
+	/** Index of each side when running a drivetrain with the two Talon C'tor. */
+	public static final int LEFT = 0;
+	public static final int RIGHT = 1;
 	
 	/**
-	 * The status of the motion profile executer and buffer inside the Talon.
-	 * Instead of creating a new one every time we call getMotionProfileStatus,
-	 * keep one copy.
+	 * Reference to the talons we plan on manipulating. We will not changeMode()
+	 * or call set(), just get motion profile status and make decisions based on
+	 * motion profile. Usually these are TalonSRXDevices, but they can be
+	 * SimulatedTalons to run off the robot.
+	 */
+	private final MotionProfileDevice[] talons;
+
+	/**
+	 * Reads the status of the motion profile executer and buffer inside each
+	 * Talon, along with the active point and sensors, into snapshots.
 	 */
-	private MotionProfileStatus leftStatus = new MotionProfileStatus();
-	private MotionProfileStatus rightStatus = new MotionProfileStatus();
+	private final StatusPoller poller;
+	/** The snapshot control() is working from this loop. */
+	private StatusPoller.Snapshot snapshot;
 	
-	/** Arrays to hold the trajectories for each side. */
-	private double[][] leftArray;
-	private double[][] rightArray;
+	/** The trajectory for each Talon, already in Talon units. */
+	private final TrajectoryBuffer[] profiles;
 
-	/** Additional cache for holding the active trajectory points */
-	double leftPos = 0, leftVel = 0, leftHeading = 0, rightPos = 0, rightVel = 0, rightHeading = 0;
+	/**
+	 * The profile each Talon is streaming right now. This is profiles until
+	 * a queued profile gets spliced in behind it.
+	 */
+	private final TrajectoryBuffer[] streaming;
 
 	/**
-	 * Reference to the talon we plan on manipulating. We will not changeMode()
-	 * or call set(), just get motion profile status and make decisions based on
-	 * motion profile.
+	 * Profiles to run after the current one, one profile per Talon each.
+	 * Guarded by this, like the stream counters.
+	 */
+	private final ArrayDeque<TrajectoryBuffer[]> queue = new ArrayDeque<TrajectoryBuffer[]>();
+
+	/**
+	 * Set once a point flagged isLast has been pushed, after which nothing
+	 * more can be spliced into this MP. Anything queued after that runs as
+	 * its own MP when this one finishes.
+	 */
+	private boolean ending = false;
+	/** Set when the next MP to start comes from the queue. */
+	private boolean startFromQueue = false;
+	/** Set once the profile being streamed was spliced in behind another. */
+	private boolean spliced = false;
+
+	/**
+	 * Keep at most this many ms of points in each Talon, top and bottom
+	 * buffers together, so a profile passed to replaceMotionProfile() takes
+	 * over that soon. Until the MP is enabled, the prefill may need more. 0 to
+	 * always keep the full {@value #kStreamWindow} points.
+	 */
+	private volatile int replanWindowMs = 0;
+	/**
+	 * Set while the MP is enabled. Volatile, like prefillPoints and holding,
+	 * so control() can set and check them without waiting on the notifier.
+	 */
+	private volatile boolean enabled = false;
+	/** Points the MP waits for before enabling, from the last loop. */
+	private volatile int prefillPoints = 0;
+	/**
+	 * Set by holdSplicePoint() while a replan is being planned: nothing more
+	 * is pushed, so the last point pushed stays where the new path starts.
+	 */
+	private volatile boolean holding = false;
+	/** Set when a hold ran out of points, so the replan is too late to use. */
+	private boolean holdLost = false;
+	/**
+	 * Least ms of points a hold leaves in the Talons, two robot loops, before
+	 * it gives up and streams the old profile again rather than underrun.
+	 */
+	private static final int kMinHeldMs = 40;
+	/** For reading the bottom buffers while the replan window or a hold applies. */
+	private final MotionProfileStatus topUpStatus = new MotionProfileStatus();
+
+	/**
+	 * Per Talon, index of the next point to push from the profile being
+	 * streamed, and how many points that profile has. Points are pushed in
+	 * order, so everything before streamIdx is already in the Talon.
+	 */
+	private final int[] streamIdx;
+	private final int[] streamCnt;
+
+	/**
+	 * The profile each Talon is streaming, encoded into points that are ready
+	 * to push. Profiles are encoded when filling starts and when they are
+	 * spliced in, every time, so a buffer refilled in place runs what it
+	 * holds now. The pools are sized for the C'tor's profiles up front.
+	 */
+	private final TrajectoryPointPool[] pools;
+
+	/**
+	 * Trajectory point reused for pushes that need an offset or heading added
+	 * to the encoded point. pushMotionProfileTrajectory() copies the point, so
+	 * there is no need to create a new one each time.
+	 */
+	private final TrajectoryPoint point = new TrajectoryPoint();
+
+	/**
+	 * If set, profiles are run from wherever each Talon is instead of zeroing
+	 * its sensor on the first point. offset is what gets added to every
+	 * position of the profile being streamed, read once in startFilling().
 	 */
-	private TalonSRX leftTalon;
-	private TalonSRX rightTalon;
+	private boolean relative = false;
+	private final double[] offset;
+
+	/**
+	 * If set, points carry the heading for the Talon's auxiliary PID. auxPos
+	 * is the last heading pushed in auxiliary sensor units, unwrapped so it
+	 * never jumps at +-180, and lastHeading is the profile heading it came
+	 * from in degrees.
+	 */
+	private boolean arc = false;
+	private final double[] auxPos;
+	private final double[] lastHeading;
+
+	/**
+	 * Per Talon, how far the sensor was from the active point every loop of
+	 * the MP. Summarized when the MP finishes.
+	 */
+	private final TrackingErrorStats[] tracking;
+
+	/** If set, every loop in MP mode gets recorded for looking at later. */
+	private MotionProfileRecorder recorder = null;
 	
 	/**
 	 * State machine to make sure we let enough of the motion profile stream to
 	 * talon before we fire it.
 	 */
 	private int state = 0;
+	/**
+	 * Where time comes from, in ns. System.nanoTime() on the robot, the
+	 * simulated clock in MotionProfileSimulation.
+	 */
+	private LongSupplier clock = System::nanoTime;
 	/**
 	 * Any time you have a state machine that waits for external events, its a
-	 * good idea to add a timeout. Set to -1 to disable. Set to nonzero to count
-	 * down to '0' which will print an error message. Counting loops is not a
-	 * very accurate method of tracking timeout, but this is just conservative
-	 * timeout. Getting time-stamps would certainly work too, this is just
-	 * simple (no need to worry about timer overflows).
+	 * good idea to add a timeout. When enabled, timeoutNs is the
+	 * clock time after which we print an error message. That clock is
+	 * monotonic, so the timeout is the same however often control() is called.
 	 */
-	private int loopTimeout = -1;
+	private boolean timeoutEnabled = false;
+	private long timeoutNs = 0;
+
+	/**
+	 * Clock time of each step of starting an MP, for the latency
+	 * histograms. activeSeen is set once the first point is being executed.
+	 */
+	private long startRequestNs = 0;
+	private long filledNs = 0;
+	private long enabledNs = 0;
+	private long activeNs = 0;
+	private boolean activeSeen = false;
+
+	/** Which transition each latency histogram measures. */
+	public static final int kStartToFilled = 0;
+	public static final int kFilledToBuffered = 1;
+	public static final int kEnabledToActive = 2;
+	public static final int kActiveToLast = 3;
+	/**
+	 * How long each step of every MP took, indexed by the transitions above:
+	 * start request to done filling, filling to enough points in every Talon
+	 * to Enable, Enable to the first active point, and the first active point
+	 * to every Talon being on its last point. These are measured in control(),
+	 * so they are only as fine as the loop.
+	 */
+	private final LatencyHistogram[] latencies = {
+		new LatencyHistogram("start->filled"),
+		new LatencyHistogram("filled->buffered"),
+		new LatencyHistogram("enabled->active"),
+		new LatencyHistogram("active->last"),
+	};
 	/**
 	 * If start() gets called, this flag is set and in the control() we will
 	 * service it.
@@ -88,14 +259,27 @@ public class MotionProfileRunner {
 	private SetValueMotionProfile setValue = SetValueMotionProfile.Disable;
 	/**
 	 * How many trajectory points do we wait for before firing the motion
-	 * profile.
+	 * profile, until the predictor has measured how fast points arrive.
+	 * After that it picks the prefill to suit the points and the bus.
 	 */
 	private static final int kMinPointsInTalon = 50;
+
+	/** Sees underruns coming and picks how many points to prefill. */
+	private final UnderrunPredictor predictor = new UnderrunPredictor();
+	/** So a predicted underrun is only logged once per MP. */
+	private boolean underrunPredicted = false;
 	/**
-	 * Just a state timeout to make sure we don't get stuck anywhere. Each loop
-	 * is about 20ms.
+	 * Just a state timeout to make sure we don't get stuck anywhere. This used
+	 * to be 10 loops of about 20ms.
 	 */
-	private static final int kNumLoopsTimeout = 10;
+	private static final long kStateTimeoutMs = 200;
+	/**
+	 * How many trajectory points we keep in the Talon's top buffer while
+	 * streaming. This has to be more than the prefill so the MP can
+	 * start, and enough to cover a few robot loops in case the notifier is
+	 * late. The top buffer itself holds 2048.
+	 */
+	private static final int kStreamWindow = 128;
 	
 	/**
 	 * Lets create a periodic task to funnel our trajectory points into our talon.
@@ -104,53 +288,177 @@ public class MotionProfileRunner {
 	 * to do this, just call _talon.processMotionProfileBuffer() in your teleop loop.
 	 * Generally speaking you want to call it at least twice as fast as the duration
 	 * of your trajectory points.  So if they are firing every 20ms, you should call 
-	 * every 10ms.
+	 * every 10ms.  AdaptivePump works that out from the profile being streamed.
+	 * 
+	 * While we are at it, top the Talons back up with the next points of the
+	 * profile as the top buffer frees up.
 	 */
 	class PeriodicRunnable implements java.lang.Runnable {
 	    public void run() {
-	    	leftTalon.processMotionProfileBuffer();
-	    	rightTalon.processMotionProfileBuffer();
+	    	for (MotionProfileDevice talon : talons) {
+	    		talon.processMotionProfileBuffer();
+	    	}
+	    	topUp();
 	    }
 	}
-	Notifier notifer = new Notifier(new PeriodicRunnable());
-	
+	private final AdaptivePump pump;
+
+	/**
+	 * Shortest point duration of the profiles being streamed, in ms. This is
+	 * what the pump period is chosen from.
+	 */
+	private int shortestDurationMs = 0;
+
+	/**
+	 * What control() needs of the stream, published by {@link #publish()}
+	 * whenever it changes under the lock, so control() can read it without
+	 * waiting for the notifier to finish a top up: the most points any Talon
+	 * has left to push, shortestDurationMs, the points in the shortest
+	 * profile being streamed, and whether anything is queued.
+	 */
+	private volatile int publishedUnpushed = 0;
+	private volatile int publishedDurationMs = 0;
+	private volatile int publishedStreamCnt = 0;
+	private volatile boolean publishedQueued = false;
+
+	/**
+	 * C'tor for a drivetrain.
+	 * 
+	 * @param leftTalon
+	 *            left side master, device {@link #LEFT}
+	 * @param rightTalon
+	 *            right side master, device {@link #RIGHT}
+	 * @param leftProfile
+	 *            profile for the left side
+	 * @param rightProfile
+	 *            profile for the right side
+	 */
+	public MotionProfileRunner(TalonSRX leftTalon, TalonSRX rightTalon, TrajectoryBuffer leftProfile, TrajectoryBuffer rightProfile) {
+		this(TalonSRXDevice.wrap(leftTalon, rightTalon), new TrajectoryBuffer[] {leftProfile, rightProfile});
+	}
+
+	/**
+	 * C'tor for a drivetrain following a Path.
+	 * 
+	 * @param leftTalon
+	 *            left side master, device {@link #LEFT}
+	 * @param rightTalon
+	 *            right side master, device {@link #RIGHT}
+	 * @param path
+	 *            path to follow, each side checked and decimated by
+	 *            {@link TankProfile#fromPath(Path)}
+	 */
+	public MotionProfileRunner(TalonSRX leftTalon, TalonSRX rightTalon, Path path) {
+		this(TalonSRXDevice.wrap(leftTalon, rightTalon), TankProfile.fromPath(path));
+	}
+
 	/**
 	 * C'tor
 	 * 
-	 * @param talon
-	 *            reference to Talon object to fetch motion profile status from.
-	 */
-	public MotionProfileRunner(TalonSRX leftTalon, TalonSRX rightTalon, double[][] leftArray, double[][] rightArray) {
-		this.leftArray = leftArray;
-		this.rightArray = rightArray;
-		this.leftTalon = leftTalon;
-		this.rightTalon = rightTalon;
+	 * @param talons
+	 *            references to the Talons to run profiles on. Followers don't
+	 *            need to be here, only the Talons that get their own profile.
+	 * @param profiles
+	 *            profile for each Talon, in the same order
+	 */
+	public MotionProfileRunner(TalonSRX[] talons, TrajectoryBuffer[] profiles) {
+		this(TalonSRXDevice.wrap(talons), profiles);
+	}
+
+	/**
+	 * C'tor
+	 * 
+	 * @param talons
+	 *            devices to run profiles on
+	 * @param profiles
+	 *            profile for each device, in the same order. They must have the
+	 *            same number of points, each lasting the same time on every
+	 *            device.
+	 */
+	public MotionProfileRunner(MotionProfileDevice[] talons, TrajectoryBuffer[] profiles) {
+		this(talons, profiles, true);
+	}
+
+	/**
+	 * C'tor
+	 * 
+	 * @param talons
+	 *            devices to run profiles on
+	 * @param profiles
+	 *            profile for each device, in the same order
+	 * @param useNotifier
+	 *            false to leave calling getPump().runOnce() to the caller, for
+	 *            simulating without a roboRIO
+	 */
+	MotionProfileRunner(MotionProfileDevice[] talons, TrajectoryBuffer[] profiles, boolean useNotifier) {
+		if (talons.length != profiles.length) {
+			throw new IllegalArgumentException(talons.length + " Talons but " + profiles.length + " profiles");
+		}
+		checkInStep(profiles);
+		int n = talons.length;
+		this.talons = talons.clone();
+		this.profiles = profiles.clone();
+		streaming = profiles.clone();
+		poller = new StatusPoller(this.talons, () -> clock.getAsLong(), useNotifier);
+		snapshot = poller.read();
+		streamIdx = new int[n];
+		streamCnt = new int[n];
+		offset = new double[n];
+		pools = new TrajectoryPointPool[n];
+		for (int d = 0; d < n; ++d) {
+			pools[d] = new TrajectoryPointPool(profiles[d].length());
+		}
+		auxPos = new double[n];
+		lastHeading = new double[n];
+		tracking = new TrackingErrorStats[n];
+		for (int d = 0; d < n; ++d) {
+			tracking[d] = new TrackingErrorStats("talon " + d);
+		}
+		pump = new AdaptivePump(new PeriodicRunnable(), useNotifier);
 		/*
-		 * since our MP is 10ms per point, set the control frame rate and the
-		 * notifer to half that
+		 * nothing is streaming yet, so start the pump idling. Once an MP
+		 * starts control() speeds it up to suit the points.
 		 */
-		leftTalon.changeMotionControlFramePeriod(1);
-		rightTalon.changeMotionControlFramePeriod(1);
-		notifer.startPeriodic(0.001);
+		for (MotionProfileDevice talon : talons) {
+			talon.changeMotionControlFramePeriod(AdaptivePump.kMaxPeriodMs);
+		}
+		pump.start(AdaptivePump.kMaxPeriodMs);
+		poller.start();
+	}
+
+	/** @return how many Talons this runs */
+	public int getDeviceCount() {
+		return talons.length;
 	}
 
 	/**
 	 * Called to clear Motion profile buffer and reset state info during
 	 * disabled and when Talon is not in MP control mode.
 	 */
-	public void reset() {
+	public synchronized void reset() {
 		/*
 		 * Let's clear the buffer just in case user decided to disable in the
 		 * middle of an MP, and now we have the second half of a profile just
 		 * sitting in memory.
 		 */
-		leftTalon.clearMotionProfileTrajectories();
-		rightTalon.clearMotionProfileTrajectories();
+		for (int d = 0; d < talons.length; ++d) {
+			talons[d].clearMotionProfileTrajectories();
+			/* and stop streaming whatever was left of it */
+			streamIdx[d] = 0;
+			streamCnt[d] = 0;
+		}
+		queue.clear();
+		startFromQueue = false;
+		enabled = false;
+		holding = false;
+		holdLost = false;
+		shortestDurationMs = 0;
+		publish();
 		/* When we do re-enter motionProfile control mode, stay disabled. */
 		setValue = SetValueMotionProfile.Disable;
 		/* When we do start running our state machine start at the beginning. */
 		state = 0;
-		loopTimeout = -1;
+		timeoutEnabled = false;
 		/*
 		 * If application wanted to start an MP before, ignore and wait for next
 		 * button press
@@ -162,38 +470,83 @@ public class MotionProfileRunner {
 	 * Called every loop.
 	 */
 	public void control() {
-		/* Get the motion profile status every loop */
-		leftTalon.getMotionProfileStatus(leftStatus);
-		rightTalon.getMotionProfileStatus(rightStatus);
+		/*
+		 * Get the motion profile status of every Talon once, and work out
+		 * what the state machine needs from all of them in the same pass.
+		 * Off the robot there is no notifier polling, so poll here.
+		 */
+		if (!poller.isBackground())
+			poller.poll();
+		snapshot = poller.read();
+		final double[] activePos = snapshot.activePos;
+		final double[] activeVel = snapshot.activeVel;
+		final double[] activeHeading = snapshot.activeHeading;
+		final int[] sensorPos = snapshot.sensorPos;
+		final int[] sensorVel = snapshot.sensorVel;
+		long now = clock.getAsLong();
+		int minTopCnt = Integer.MAX_VALUE;
+		int minBtmCnt = Integer.MAX_VALUE;
+		boolean allInMp = true;
+		boolean allUnderrunFree = true;
+		boolean allValid = true;
+		boolean allLast = true;
+		for (int d = 0; d < talons.length; ++d) {
+			MotionProfileStatus status = snapshot.statuses[d];
+			minTopCnt = Math.min(minTopCnt, status.topBufferCnt);
+			minBtmCnt = Math.min(minBtmCnt, status.btmBufferCnt);
+			ControlMode mode = snapshot.modes[d];
+			allInMp &= mode == ControlMode.MotionProfile || mode == ControlMode.MotionProfileArc;
+			allUnderrunFree &= !status.isUnderrun;
+			allValid &= status.activePointValid;
+			allLast &= status.activePointValid && status.isLast;
+		}
 
+		/* pump only as fast as the points being streamed need */
+		int streamedDurationMs = publishedDurationMs;
+		int remaining = 0;
+		for (int d = 0; d < talons.length; ++d) {
+			remaining = Math.max(remaining, snapshot.statuses[d].topBufferCnt);
+		}
+		remaining += publishedUnpushed;
 		/*
-		 * track time, this is rudimentary but that's okay, we just want to make
-		 * sure things never get stuck.
+		 * the refill rate goes by when the statuses were read, which with the
+		 * poller on its own notifier isn't now. The replan window holds pushes
+		 * back on purpose, so the refill then says nothing about how fast the
+		 * bus is: don't measure it
 		 */
-		if (loopTimeout < 0) {
-			/* do nothing, timeout is disabled */
-		} else {
-			/* our timeout is nonzero */
-			if (loopTimeout == 0) {
-				/*
-				 * something is wrong. Talon is not present, unplugged, breaker
-				 * tripped
-				 */
-				Instrumentation.OnNoProgress();
-			} else {
-				--loopTimeout;
+		predictor.update(snapshot.getTimeNs(), minBtmCnt, isWindowed() ? 0 : minTopCnt, remaining,
+				state == 2 && allValid && setValue == SetValueMotionProfile.Enable, streamedDurationMs);
+		if (predictor.isUnderrunPredicted() && !underrunPredicted) {
+			underrunPredicted = true;
+			Instrumentation.OnUnderrunPredicted();
+		}
+		if (pump.update((state != 0) ? streamedDurationMs : 0, minTopCnt, minBtmCnt)) {
+			for (MotionProfileDevice talon : talons) {
+				talon.changeMotionControlFramePeriod(pump.getPeriodMs());
 			}
 		}
 
+		/*
+		 * track time, we just want to make sure things never get stuck.
+		 */
+		if (!timeoutEnabled) {
+			/* do nothing, timeout is disabled */
+		} else if (now - timeoutNs >= 0) {
+			/*
+			 * something is wrong. Talon is not present, unplugged, breaker
+			 * tripped
+			 */
+			Instrumentation.OnNoProgress();
+		}
+
 		/* first check if we are in MP mode */
-		if (leftTalon.getControlMode() != ControlMode.MotionProfile
-				|| rightTalon.getControlMode() != ControlMode.MotionProfile) {
+		if (!allInMp) {
 			/*
 			 * we are not in MP mode. We are probably driving the robot around
 			 * using gamepads or some other mode.
 			 */
 			state = 0;
-			loopTimeout = -1;
+			timeoutEnabled = false;
 		} else {
 			/*
 			 * we are in MP control mode. That means: starting Mps, checking Mp
@@ -207,25 +560,40 @@ public class MotionProfileRunner {
 	
 						setValue = SetValueMotionProfile.Disable;
 						startFilling();
+						filledNs = clock.getAsLong();
+						latencies[kStartToFilled].record(filledNs - startRequestNs);
 						/*
 						 * MP is being sent to CAN bus, wait a small amount of time
 						 */
 						state = 1;
-						loopTimeout = kNumLoopsTimeout;
+						armTimeout(filledNs);
 					}
 					break;
 				case 1: /*
 						 * wait for MP to stream to Talon, really just the first few
 						 * points
 						 */
-					/* do we have a minimum numberof points in Talon */
-					if (leftStatus.btmBufferCnt > kMinPointsInTalon
-							&& rightStatus.btmBufferCnt > kMinPointsInTalon) {
-						/* start (once) the motion profile */
+					/*
+					 * do we have enough points in every Talon to not underrun,
+					 * or the whole MP if it is shorter than that (decimated
+					 * profiles can be)
+					 */
+					int prefill = predictor.getPrefillPoints(publishedDurationMs, publishedStreamCnt, kMinPointsInTalon + 1);
+					/* so the replan window pushes enough to get there */
+					prefillPoints = prefill;
+					if (minBtmCnt >= prefill) {
+						/* start (once) the motion profile, on all Talons at once */
 						setValue = SetValueMotionProfile.Enable;
+						enabled = true;
+						enabledNs = now;
+						activeSeen = false;
+						for (TrackingErrorStats stats : tracking) {
+							stats.start();
+						}
+						latencies[kFilledToBuffered].record(now - filledNs);
 						/* MP will start once the control frame gets scheduled */
 						state = 2;
-						loopTimeout = kNumLoopsTimeout;
+						armTimeout(now);
 					}
 					break;
 				case 2: /* check the status of the MP */
@@ -234,41 +602,64 @@ public class MotionProfileRunner {
 					 * timeout. Really this is so that you can unplug your talon in
 					 * the middle of an MP and react to it.
 					 */
-					if (leftStatus.isUnderrun == false && rightStatus.isUnderrun == false) {
-						loopTimeout = kNumLoopsTimeout;
+					if (allUnderrunFree) {
+						armTimeout(now);
+					}
+					if (allValid && setValue == SetValueMotionProfile.Enable) {
+						/* how well is each Talon following its point */
+						for (int d = 0; d < talons.length; ++d) {
+							tracking[d].record(activePos[d], activeVel[d], sensorPos[d], sensorVel[d]);
+						}
+					}
+					if (!activeSeen && allValid) {
+						/* every Talon is executing its first point */
+						activeSeen = true;
+						activeNs = now;
+						latencies[kEnabledToActive].record(now - enabledNs);
 					}
 					/*
 					 * If we are executing an MP and the MP finished, start loading
 					 * another. We will go into hold state so robot servo's
 					 * position.
 					 */
-					if (leftStatus.activePointValid && leftStatus.isLast
-							&& rightStatus.activePointValid && rightStatus.isLast) {
+					if (allLast) {
 						/*
 						 * because we set the last point's isLast to true, we will
 						 * get here when the MP is done
 						 */
 						setValue = SetValueMotionProfile.Hold;
+						enabled = false;
 						state = 0;
-						loopTimeout = -1;
+						timeoutEnabled = false;
+						if (activeSeen)
+							latencies[kActiveToLast].record(now - activeNs);
+						for (TrackingErrorStats stats : tracking) {
+							stats.finish();
+						}
+						/*
+						 * a profile queued too late to be spliced in starts
+						 * the usual way
+						 */
+						if (publishedQueued) {
+							startFromQueue = true;
+							start = true;
+						}
 					}
 					break;
 			}
 
-			/* Get the motion profile status every loop */
-			leftTalon.getMotionProfileStatus(leftStatus);
-			leftHeading = leftTalon.getActiveTrajectoryHeading();
-			leftPos = leftTalon.getActiveTrajectoryPosition();
-			leftVel = leftTalon.getActiveTrajectoryVelocity();
-			
-			rightTalon.getMotionProfileStatus(rightStatus);
-			rightHeading = rightTalon.getActiveTrajectoryHeading();
-			rightPos = rightTalon.getActiveTrajectoryPosition();
-			rightVel = rightTalon.getActiveTrajectoryVelocity();
-
 			/* printfs and/or logging */
-			// TODO: Rewrite Instrumentation for both talons? Right now only left.
-			Instrumentation.process(leftStatus, leftPos, leftVel, leftHeading);
+			/*
+			 * Instrumentation only prints the first Talon, the recorder gets
+			 * all of them, stamped with when the poller read them
+			 */
+			Instrumentation.process(snapshot.statuses[0], activePos[0], activeVel[0], activeHeading[0]);
+			if (recorder != null) {
+				for (int d = 0; d < talons.length; ++d) {
+					recorder.record(snapshot.getTimeNs(), d, snapshot.statuses[d], activePos[d], activeVel[d], activeHeading[d],
+							sensorPos[d], sensorVel[d]);
+				}
+			}
 		}
 	}
 	/**
@@ -276,7 +667,7 @@ public class MotionProfileRunner {
 	 * @param durationMs
 	 * @return enum equivalent of durationMs
 	 */
-	private TrajectoryDuration GetTrajectoryDuration(int durationMs)
+	static TrajectoryDuration GetTrajectoryDuration(int durationMs)
 	{	 
 		/* create return value */
 		TrajectoryDuration retval = TrajectoryDuration.Trajectory_Duration_0ms;
@@ -290,88 +681,586 @@ public class MotionProfileRunner {
 		return retval;
 	}
 	/** Start filling the MPs to all of the involved Talons. */
-	private void startFilling() {
-		/* since this example only has one talon, just update that one */
-		startFilling(leftArray, rightArray, leftArray.length);
-	}
+	private synchronized void startFilling() {
+		TrajectoryBuffer[] first = profiles;
+		if (startFromQueue && !queue.isEmpty())
+			first = queue.poll();
+		startFromQueue = false;
+		ending = false;
+		spliced = false;
+		enabled = false;
+		holding = false;
+		holdLost = false;
+		predictor.restart();
+		underrunPredicted = false;
+		shortestDurationMs = Integer.MAX_VALUE;
+		for (int d = 0; d < talons.length; ++d) {
+			MotionProfileDevice talon = talons[d];
 
-	private void startFilling(double[][] leftProfile, double[][] rightProfile, int totalCnt) {
+			/* did we get an underrun condition since last time we checked ? */
+			if (snapshot.statuses[d].hasUnderrun) {
+				/* better log it so we know about it */
+				Instrumentation.OnUnderrun();
+				/*
+				 * clear the error. This flag does not auto clear, this way 
+				 * we never miss logging it.
+				 */
+				talon.clearMotionProfileHasUnderrun(0);
+			}
+			/*
+			 * just in case we are interrupting another MP and there is still buffer
+			 * points in memory, clear it.
+			 */
+			talon.clearMotionProfileTrajectories();
 
-		/* create an empty point */
-		TrajectoryPoint leftPoint = new TrajectoryPoint();
-		TrajectoryPoint rightPoint = new TrajectoryPoint();
+			/* set the base trajectory period to zero, use the individual trajectory period below */
+			talon.configMotionProfileTrajectoryPeriod(Constants.kBaseTrajPeriodMs, Constants.kTimeoutMs);
 
-		/* did we get an underrun condition since last time we checked ? */
-		if (leftStatus.hasUnderrun) {
-			/* better log it so we know about it */
-			Instrumentation.OnUnderrun();
+			streaming[d] = first[d];
+			pools[d].encode(streaming[d]);
+			streamIdx[d] = 0;
+			streamCnt[d] = streaming[d].length();
 			/*
-			 * clear the error. This flag does not auto clear, this way 
-			 * we never miss logging it.
+			 * take the sensor from this loop's snapshot, the profile's first
+			 * point lands where the Talon is now
 			 */
-			leftTalon.clearMotionProfileHasUnderrun(0);
+			offset[d] = 0;
+			if (relative && streamCnt[d] > 0)
+				offset[d] = snapshot.sensorPos[d] - streaming[d].position[0];
+			/* hold whatever heading the robot has now */
+			if (arc && streamCnt[d] > 0) {
+				auxPos[d] = snapshot.auxPos[d];
+				lastHeading[d] = streaming[d].heading[0];
+			}
+			shortestDurationMs = Math.min(shortestDurationMs, shortestDuration(streaming[d], streamCnt[d]));
 		}
+
+		prefillPoints = predictor.getPrefillPoints(shortestDurationMs, shortestStreamCnt(), kMinPointsInTalon + 1);
 		/*
-		 * just in case we are interrupting another MP and there is still buffer
-		 * points in memory, clear it.
+		 * Only push the first window here, the notifier streams the rest in
+		 * as the Talons make room for it. The buffers were just cleared, so
+		 * nothing is in flight.
 		 */
-		leftTalon.clearMotionProfileTrajectories();
-		rightTalon.clearMotionProfileTrajectories();
-
-		/* set the base trajectory period to zero, use the individual trajectory period below */
-		leftTalon.configMotionProfileTrajectoryPeriod(Constants.kBaseTrajPeriodMs, Constants.kTimeoutMs);
-		rightTalon.configMotionProfileTrajectoryPeriod(Constants.kBaseTrajPeriodMs, Constants.kTimeoutMs);
-		
-		/* This is fast since it's just into our TOP buffer */
-		for (int i = 0; i < totalCnt; ++i) {
-			double leftPositionRaw = leftProfile[i][0]; // ft
-			double leftVelocityRaw = leftProfile[i][1]; // ft/sec
-			/* for each point, fill our structure and pass it to API */
-			
-			leftPoint.position = ft2Units(leftPositionRaw);
-			leftPoint.velocity = fps2UnitsPerRev(leftVelocityRaw);
-			leftPoint.timeDur = GetTrajectoryDuration((int)(leftProfile[i][2] * 1000));
-			leftPoint.zeroPos = false;
-			if (i == 0)
-				leftPoint.zeroPos = true; /* set this to true on the first point */
-
-			leftPoint.isLastPoint = false;
-			if ((i + 1) == totalCnt)
-				leftPoint.isLastPoint = true; /* set this to true on the last point  */
-
-			leftTalon.pushMotionProfileTrajectory(leftPoint);
-			
-			double rightPositionRaw = rightProfile[i][0]; // ft
-			double rightVelocityRaw = rightProfile[i][1]; // ft/sec
-			/* for each point, fill our structure and pass it to API */
-			
-			rightPoint.position = ft2Units(rightPositionRaw);
-			rightPoint.velocity = fps2UnitsPerRev(rightVelocityRaw);
-			rightPoint.timeDur = GetTrajectoryDuration((int)rightProfile[i][2]);
-			rightPoint.zeroPos = false;
-			if (i == 0)
-				rightPoint.zeroPos = true; /* set this to true on the first point */
-
-			rightPoint.isLastPoint = false;
-			if ((i + 1) == totalCnt)
-				rightPoint.isLastPoint = true; /* set this to true on the last point  */
-
-			rightTalon.pushMotionProfileTrajectory(rightPoint);
+		for (int d = 0; d < talons.length; ++d) {
+			pushRange(d, windowEnd(d, Math.min(streamCnt[d], kStreamWindow), 0, 0));
+		}
+		publish();
+	}
+
+	/**
+	 * @return shortest nonzero duration of the first cnt points in ms, or 0 if
+	 *         they all use the base trajectory period
+	 */
+	private static int shortestDuration(TrajectoryBuffer profile, int cnt) {
+		int shortest = Integer.MAX_VALUE;
+		for (int i = 0; i < cnt; ++i) {
+			int durationMs = profile.durationMs[i];
+			if (durationMs > 0 && durationMs < shortest)
+				shortest = durationMs;
 		}
+		return (shortest == Integer.MAX_VALUE) ? Constants.kBaseTrajPeriodMs : shortest;
 	}
+
+	/**
+	 * Push more points until each top buffer holds {@value #kStreamWindow}
+	 * points again, or its profile runs out. Called from the notifier.
+	 * 
+	 * With a replan window, each Talon is only topped up to that many ms of
+	 * points, counting the bottom buffer too. While the splice point is held
+	 * nothing is pushed at all.
+	 */
+	private synchronized void topUp() {
+		if (holding) {
+			/* don't let a slow replan run the Talons dry */
+			for (int d = 0; d < talons.length && holding; ++d) {
+				if (streamCnt[d] > 0 && pushedMs(d, inFlightPoints(d)) <= kMinHeldMs) {
+					holding = false;
+					holdLost = true;
+				}
+			}
+			if (holding)
+				return;
+		}
+		if (!ending && !queue.isEmpty() && allStreamed())
+			splice(queue.poll());
+		for (int d = 0; d < talons.length; ++d) {
+			if (streamIdx[d] >= streamCnt[d]) {
+				/* nothing left to stream */
+				continue;
+			}
+			int inFlight = talons[d].getMotionProfileTopLevelBufferCount();
+			if (inFlight >= kStreamWindow)
+				continue;
+			int to = Math.min(streamCnt[d], streamIdx[d] + kStreamWindow - inFlight);
+			if (replanWindowMs > 0) {
+				int points = inFlightPoints(d);
+				to = windowEnd(d, to, points, pushedMs(d, points));
+			}
+			if (to > streamIdx[d])
+				pushRange(d, to);
+		}
+		publish();
+	}
+
+	/**
+	 * How far to push a Talon's profile with the replan window: until there
+	 * are that many ms of points in flight, or before the MP is enabled, until
+	 * there are enough points to enable it if that is more.
+	 * @param d which Talon
+	 * @param to most it may be pushed up to
+	 * @param points points in flight now
+	 * @param ms how long they last
+	 * @return one past the last index to push
+	 */
+	private int windowEnd(int d, int to, int points, int ms) {
+		if (replanWindowMs <= 0)
+			return to;
+		int end = streamIdx[d];
+		while (end < to && (ms < replanWindowMs || (!enabled && points < prefillPoints))) {
+			ms += durationMs(streaming[d], end++);
+			++points;
+		}
+		return end;
+	}
+
+	/**
+	 * @param d which Talon
+	 * @return points pushed to it that it hasn't run yet, top and bottom buffers
+	 *         together, as far back as the profile being streamed goes
+	 */
+	private int inFlightPoints(int d) {
+		talons[d].getMotionProfileStatus(topUpStatus);
+		return Math.min(streamIdx[d], topUpStatus.topBufferCnt + topUpStatus.btmBufferCnt);
+	}
+
+	/**
+	 * @param d which Talon
+	 * @param n how many points
+	 * @return how long the last n points pushed to it last, in ms
+	 */
+	private int pushedMs(int d, int n) {
+		int ms = 0;
+		for (int i = streamIdx[d] - n; i < streamIdx[d]; ++i) {
+			ms += durationMs(streaming[d], i);
+		}
+		return ms;
+	}
+
+	/** @return how long point i of a profile lasts on the Talon, in ms */
+	private static int durationMs(TrajectoryBuffer profile, int i) {
+		return profile.durationMs[i] + Constants.kBaseTrajPeriodMs;
+	}
+
+	/**
+	 * Push the points of a Talon's profile from streamIdx up to to, and move
+	 * streamIdx past them.
+	 * @param d which Talon
+	 * @param to one past the last index to push
+	 */
+	private void pushRange(int d, int to) {
+		int from = streamIdx[d];
+		/*
+		 * set isLast on the last point, unless the next profile is going to
+		 * follow it
+		 */
+		boolean last = to == streamCnt[d] && (ending || queue.isEmpty());
+		/* set zeroPos on the first point, unless we are offsetting instead */
+		boolean zero = !relative && !spliced;
+		if (offset[d] == 0 && !arc) {
+			/* nothing to add, the encoded points go out as they are */
+			pools[d].push(talons[d], from, to, zero, last);
+		} else {
+			for (int i = from; i < to; ++i) {
+				pushPoint(d, i, zero && i == 0, last && (i + 1) == to);
+			}
+		}
+		if (last && from < to)
+			ending = true;
+		streamIdx[d] = to;
+	}
+
+	/**
+	 * Push point i of a Talon's profile to it, with the offset and heading
+	 * added to the encoded point.
+	 * @param d which Talon
+	 * @param i index into its profile
+	 * @param zeroPos whether to zero the sensor on this point
+	 * @param isLast whether this is the last point of the MP
+	 */
+	private void pushPoint(int d, int i, boolean zeroPos, boolean isLast) {
+		TrajectoryBuffer profile = streaming[d];
+		/* for each point, fill our structure and pass it to API */
+		point.position = profile.position[i] + offset[d];
+		point.velocity = profile.velocity[i];
+		point.timeDur = pools[d].getDuration(i);
+		point.profileSlotSelect0 = Constants.kSlotIdx;
+		if (arc) {
+			/* turn by however much the profile turned since the last point */
+			double turn = profile.heading[i] - lastHeading[d];
+			turn -= 360 * Math.floor((turn + 180) / 360);
+			lastHeading[d] = profile.heading[i];
+			auxPos[d] += turn * kArcHeadingSign * Constants.kTurnUnitsPerDegree;
+			point.headingDeg = profile.heading[i];
+			point.auxiliaryPos = auxPos[d];
+			point.profileSlotSelect1 = Constants.kArcSlotIdx;
+		} else {
+			point.headingDeg = 0;
+			point.auxiliaryPos = 0;
+			point.profileSlotSelect1 = 0;
+		}
+		point.zeroPos = zeroPos;
+		point.isLastPoint = isLast;
+
+		talons[d].pushMotionProfileTrajectory(point);
+	}
+	/**
+	 * @return true if every point of the current profile has been pushed, and
+	 *         false if nothing is being streamed at all
+	 */
+	private boolean allStreamed() {
+		for (int d = 0; d < talons.length; ++d) {
+			if (streamCnt[d] == 0 || streamIdx[d] < streamCnt[d])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Start streaming the next profile right behind the last point pushed,
+	 * from where that point is. None of the Talons have been given an isLast
+	 * point, so they run straight on into it.
+	 * @param next profile for each Talon
+	 */
+	private void splice(TrajectoryBuffer[] next) {
+		for (int d = 0; d < talons.length; ++d) {
+			TrajectoryBuffer prev = streaming[d];
+			if (streamIdx[d] > 0 && next[d].length() > 0)
+				offset[d] += prev.position[streamIdx[d] - 1] - next[d].position[0];
+			/* and carry on at the same heading */
+			if (next[d].length() > 0)
+				lastHeading[d] = next[d].heading[0];
+			streaming[d] = next[d];
+			pools[d].encode(next[d]);
+			streamIdx[d] = 0;
+			streamCnt[d] = next[d].length();
+			shortestDurationMs = Math.min(shortestDurationMs, shortestDuration(next[d], streamCnt[d]));
+		}
+		spliced = true;
+	}
+
+	/**
+	 * Queue a profile to run after the current one. If it is queued before the
+	 * current profile's last point has been pushed, it follows on without
+	 * stopping. Otherwise it starts on its own once the current MP finishes.
+	 * 
+	 * @param next
+	 *            profile for each Talon, in the same order as the C'tor's. When
+	 *            it follows on, its first point lands on the current profile's
+	 *            last point. Like the C'tor's, they must run in step.
+	 */
+	public synchronized void queueMotionProfile(TrajectoryBuffer... next) {
+		if (next.length != talons.length) {
+			throw new IllegalArgumentException(talons.length + " Talons but " + next.length + " profiles");
+		}
+		checkInStep(next);
+		queue.add(next.clone());
+		publish();
+	}
+
+	/**
+	 * Check a set of profiles, one per Talon, can be streamed side by side.
+	 * The next profile is only spliced in once every Talon's current one has
+	 * been pushed, so a Talon whose profile ran out sooner would push its last
+	 * point without isLast and then underrun waiting for the others.
+	 * 
+	 * @param profiles
+	 *            profile for each Talon
+	 * @throws IllegalArgumentException
+	 *             if they don't have the same number of points, or a point
+	 *             doesn't last the same time on every Talon
+	 */
+	private static void checkInStep(TrajectoryBuffer[] profiles) {
+		if (profiles.length == 0)
+			return;
+		TrajectoryBuffer first = profiles[0];
+		for (int d = 1; d < profiles.length; ++d) {
+			TrajectoryBuffer profile = profiles[d];
+			if (profile.length() != first.length()) {
+				throw new IllegalArgumentException(
+						"Profile 0 has " + first.length() + " points, profile " + d + " has " + profile.length());
+			}
+			for (int i = 0; i < first.length(); ++i) {
+				if (profile.durationMs[i] != first.durationMs[i]) {
+					throw new IllegalArgumentException("Point " + i + " lasts " + first.durationMs[i]
+							+ "ms in profile 0 and " + profile.durationMs[i] + "ms in profile " + d);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the rest of the running MP with another profile, for when plans
+	 * change part way through (see Replanner). It is spliced in right after
+	 * the last point pushed, so it takes over once the Talons have run the
+	 * points they already hold, which {@link #setReplanWindowMs(int)} keeps
+	 * short. Anything queued is dropped, and a held splice point is released.
+	 * 
+	 * @param next
+	 *            profile for each Talon, in the same order as the C'tor's. Its
+	 *            first point is the state it was planned from, the last point
+	 *            pushed, so that one is skipped.
+	 * @return false if there was nothing left to replace, because the MP isn't
+	 *         running or its last point has already been pushed, or if the
+	 *         splice point was held but had to be let go before this was
+	 *         called
+	 */
+	public synchronized boolean replaceMotionProfile(TrajectoryBuffer... next) {
+		if (next.length != talons.length) {
+			throw new IllegalArgumentException(talons.length + " Talons but " + next.length + " profiles");
+		}
+		checkInStep(next);
+		boolean lost = holdLost;
+		holding = false;
+		holdLost = false;
+		if (ending || lost) {
+			return false;
+		}
+		for (int d = 0; d < talons.length; ++d) {
+			if (streamIdx[d] == 0)
+				return false;
+		}
+		queue.clear();
+		splice(next);
+		for (int d = 0; d < talons.length; ++d) {
+			streamIdx[d] = Math.min(1, streamCnt[d]);
+		}
+		publish();
+		return true;
+	}
+
+	/**
+	 * @param d which Talon
+	 * @return velocity of the last point pushed to it, in sensor units per
+	 *         100ms, or 0 if nothing has been
+	 */
+	public synchronized double getStreamedVelocity(int d) {
+		return (streamIdx[d] == 0) ? 0 : streaming[d].velocity[streamIdx[d] - 1];
+	}
+
+	/**
+	 * Where a profile passed to replaceMotionProfile() would start from: the
+	 * last point pushed, halfway between the {@link #LEFT} and {@link #RIGHT}
+	 * sides. Only meaningful for profiles from a path, see
+	 * {@link TrajectoryBuffer#x}.
+	 * 
+	 * @return x and y in feet and heading in radians, or null if nothing has
+	 *         been pushed
+	 */
+	public synchronized Waypoint getSplicePose() {
+		if (talons.length <= RIGHT) {
+			throw new IllegalStateException("Only a drivetrain has a pose");
+		}
+		int l = streamIdx[LEFT] - 1;
+		int r = streamIdx[RIGHT] - 1;
+		if (l < 0 || r < 0)
+			return null;
+		TrajectoryBuffer left = streaming[LEFT];
+		TrajectoryBuffer right = streaming[RIGHT];
+		return new Waypoint((left.x[l] + right.x[r]) / 2, (left.y[l] + right.y[r]) / 2,
+				Pathfinder.d2r(left.heading[l]));
+	}
+
+	/**
+	 * Stop pushing points, so the splice point stays put while a new profile
+	 * is planned from it. The Talons carry on with the points they hold. If
+	 * they get down to {@value #kMinHeldMs}ms of points before
+	 * replaceMotionProfile() or releaseSplicePoint() is called, streaming
+	 * resumes and the replacement is refused.
+	 * 
+	 * Call from the robot loop, like control(): what the Talons hold is read
+	 * from that loop's snapshot rather than the Talons.
+	 * 
+	 * @return false if there is nothing left to replace, or the Talons still
+	 *         hold more than the replan window (and a point), as they can
+	 *         right after the prefill
+	 */
+	public synchronized boolean holdSplicePoint() {
+		if (ending || !enabled)
+			return false;
+		for (int d = 0; d < talons.length; ++d) {
+			if (streamIdx[d] == 0)
+				return false;
+			MotionProfileStatus status = snapshot.statuses[d];
+			int points = Math.min(streamIdx[d], status.topBufferCnt + status.btmBufferCnt);
+			if (replanWindowMs > 0 && pushedMs(d, points) > replanWindowMs + TrajectoryDecimator.kMaxDurationMs)
+				return false;
+		}
+		holding = true;
+		holdLost = false;
+		return true;
+	}
+
+	/** Go back to streaming after holdSplicePoint(), without replacing anything. */
+	public synchronized void releaseSplicePoint() {
+		holding = false;
+		holdLost = false;
+	}
+
+	/**
+	 * Keep the MP short enough to replan, see replaceMotionProfile().
+	 * 
+	 * @param ms
+	 *            most ms of points to keep in each Talon, a few robot loops
+	 *            so a late notifier doesn't underrun and a hold lasts long
+	 *            enough to plan (see Replanner#kReplanWindowMs). Until the
+	 *            MP is enabled the prefill can need more. 0 to keep
+	 *            {@value #kStreamWindow} points however long they last.
+	 */
+	public void setReplanWindowMs(int ms) {
+		replanWindowMs = Math.max(0, ms);
+	}
+
+	/**
+	 * @return true if pushes are being held back for replanning, rather than
+	 *         going as fast as the Talons take them. The prefill isn't.
+	 */
+	private boolean isWindowed() {
+		return (enabled && replanWindowMs > 0) || holding;
+	}
+
+	/** @return true if any profiles are waiting to run */
+	public boolean hasQueued() {
+		return publishedQueued;
+	}
+
+	/**
+	 * Publish the stream counters for control(). Call with the lock held,
+	 * after anything that pushes, splices or queues.
+	 */
+	private void publish() {
+		int unpushed = 0;
+		for (int d = 0; d < talons.length; ++d) {
+			unpushed = Math.max(unpushed, streamCnt[d] - streamIdx[d]);
+		}
+		publishedUnpushed = unpushed;
+		publishedDurationMs = shortestDurationMs;
+		publishedStreamCnt = shortestStreamCnt();
+		publishedQueued = !queue.isEmpty();
+	}
+
+	/**
+	 * @return number of points in the shortest profile being streamed. Call
+	 *         with the lock held.
+	 */
+	private int shortestStreamCnt() {
+		int min = Integer.MAX_VALUE;
+		for (int cnt : streamCnt) {
+			min = Math.min(min, cnt);
+		}
+		return min;
+	}
+	/**
+	 * Choose how the next MP starts. Takes effect the next time filling
+	 * starts, not in the middle of an MP.
+	 * @param relative true to offset the MP from each Talon's current position,
+	 *            false to zero the sensors on its first point
+	 */
+	void setRelative(boolean relative) {
+		this.relative = relative;
+	}
+
+	/**
+	 * Choose whether points carry heading for the Talon's auxiliary PID. Takes
+	 * effect the next time filling starts, not in the middle of an MP.
+	 * @param arc true to stream heading, run the Talons in MotionProfileArc
+	 */
+	void setArc(boolean arc) {
+		this.arc = arc;
+		/* startFilling() takes the heading to hold from the snapshot */
+		poller.setAux(arc);
+	}
+
+	/**
+	 * @return ms of slack before the emptiest Talon underruns, negative if one
+	 *         is predicted, infinite when no MP is executing. See
+	 *         UnderrunPredictor.getMarginMs().
+	 */
+	double getUnderrunMarginMs() {
+		return predictor.getMarginMs();
+	}
+
+	/**
+	 * Use another clock for timeouts, latencies and rates, for simulating.
+	 * @param clock monotonic time in ns
+	 */
+	void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/** @return the predictor, to see the measured refill rate */
+	UnderrunPredictor getPredictor() {
+		return predictor;
+	}
+
+	/** @return the pump, to see what period it picked and its jitter */
+	AdaptivePump getPump() {
+		return pump;
+	}
+
+	/**
+	 * Record every loop spent in MP mode.
+	 * @param recorder recording to add to, or null to stop recording
+	 */
+	void setRecorder(MotionProfileRecorder recorder) {
+		this.recorder = recorder;
+	}
+
 	/**
 	 * Called by application to signal Talon to start the buffered MP (when it's
 	 * able to).
 	 */
 	void startMotionProfile() {
+		startRequestNs = clock.getAsLong();
 		start = true;
 	}
 
+	/** Give the current state {@value #kStateTimeoutMs}ms from now. */
+	private void armTimeout(long now) {
+		timeoutEnabled = true;
+		timeoutNs = now + kStateTimeoutMs * 1000000;
+	}
+
+	/**
+	 * @param transition
+	 *            one of kStartToFilled, kFilledToBuffered, kEnabledToActive or
+	 *            kActiveToLast
+	 * @return latencies of that step for every MP run so far
+	 */
+	LatencyHistogram getLatencies(int transition) {
+		return latencies[transition];
+	}
+
+	/**
+	 * @param d which Talon
+	 * @return its tracking error, as of the last MP that finished
+	 */
+	TrackingErrorStats getTrackingError(int d) {
+		return tracking[d];
+	}
+
+	/** Print a summary of every latency histogram. Not for the control loop. */
+	void printLatencies() {
+		for (LatencyHistogram histogram : latencies) {
+			System.out.println(histogram);
+		}
+	}
+
 	/**
 	 * 
 	 * @return the output value to pass to Talon's set() routine. 0 for disable
 	 *         motion-profile output, 1 for enable motion-profile, 2 for hold
-	 *         current motion profile trajectory point.
+	 *         current motion profile trajectory point. The same value goes to
+	 *         every Talon so they start together.
 	 */
 	SetValueMotionProfile getSetValue() {
 		return setValue;
@@ -383,7 +1272,7 @@ public class MotionProfileRunner {
 	 * @param feet
 	 * @return encoder units
 	 */
-	double ft2Units(double feet) {
+	static double ft2Units(double feet) {
 		feet *= 12; // inches
 		feet /= WHEEL_DIAMETER * Math.PI; // revolutions
 		feet *= UNITS_PER_REVOLUTION; // Units
@@ -396,11 +1285,20 @@ public class MotionProfileRunner {
 	 * @param fps feet per second
 	 * @return encoder units per 100 milliseconds
 	 */
-	double fps2UnitsPerRev(double fps) {
+	static double fps2UnitsPerRev(double fps) {
 		fps /= 10; // ft/100ms
 		fps *= 12; // in/100ms
 		fps /= WHEEL_DIAMETER * Math.PI; // revolutions/100ms
 		fps *= UNITS_PER_REVOLUTION; // Units/100ms
 		return fps;
 	}
+
+	/**
+	 * Converts encoder units per 100 milliseconds back to feet per second.
+	 * @param unitsPer100ms encoder units per 100 milliseconds
+	 * @return feet per second
+	 */
+	static double unitsPerRev2Fps(double unitsPer100ms) {
+		return unitsPer100ms / fps2UnitsPerRev(1);
+	}
 }
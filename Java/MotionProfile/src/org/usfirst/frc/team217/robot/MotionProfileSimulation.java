@@ -0,0 +1,309 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.SetValueMotionProfile;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * Runs MotionProfileRunner against SimulatedTalons on a simulated clock, the
+ * way Robot would on the roboRIO: control() and set() every 20ms loop, and the
+ * pump every time its period comes around. No roboRIO, HAL or CAN bus needed,
+ * and the same inputs always give the same results.
+ *
+ * Run main() to stream GeneratedMotionProfile through two simulated Talons
+ * at a few CAN latencies and print how it went, or main("check") (the
+ * check-simulation target in build.xml) to fail the build if any of them
+ * underruns, finishes late or off target, or doesn't come out the same twice.
+ * The check also runs moves from ProfileGenerator back to back out of one
+ * buffer refilled in place, so the runner has to pick up what the buffer holds
+ * now.
+ */
+public class MotionProfileSimulation {
+
+	/** How often the robot loop (teleopPeriodic) runs, in ms. */
+	public static final int kLoopPeriodMs = 20;
+
+	public final SimulatedTalon[] talons;
+	public final MotionProfileRunner runner;
+
+	private final MotionProfileStatus status = new MotionProfileStatus();
+
+	private long nowMs = 0;
+	private long nextLoopMs = 0;
+	private long nextPumpMs = 0;
+
+	private long startMs = -1;
+	private long enabledMs = -1;
+	private long finishedMs = -1;
+	private int underrunLoops = 0;
+
+	/**
+	 * @param talons
+	 *            simulated Talons, one per profile
+	 * @param profiles
+	 *            profile for each Talon
+	 */
+	public MotionProfileSimulation(SimulatedTalon[] talons, TrajectoryBuffer[] profiles) {
+		this.talons = talons;
+		runner = new MotionProfileRunner(talons, profiles, false);
+		runner.setClock(() -> nowMs * 1000000);
+		for (SimulatedTalon talon : talons) {
+			talon.set(ControlMode.MotionProfile, SetValueMotionProfile.Disable.value);
+		}
+	}
+
+	/**
+	 * Ask the runner to start the MP, like pressing button 6. The times and
+	 * underruns are measured from here, so one simulation can run several MPs
+	 * back to back.
+	 */
+	public void start() {
+		runner.startMotionProfile();
+		startMs = nowMs;
+		enabledMs = -1;
+		finishedMs = -1;
+		underrunLoops = 0;
+	}
+
+	/** Simulate one ms. */
+	public void step() {
+		if (nowMs >= nextPumpMs) {
+			runner.getPump().runOnce();
+			nextPumpMs = nowMs + runner.getPump().getPeriodMs();
+		}
+		if (nowMs >= nextLoopMs) {
+			loop();
+			nextLoopMs = nowMs + kLoopPeriodMs;
+		}
+		for (SimulatedTalon talon : talons) {
+			talon.advance(1);
+		}
+		++nowMs;
+	}
+
+	/** What Robot.teleopPeriodic() does with button 5 held. */
+	private void loop() {
+		runner.control();
+		SetValueMotionProfile setOutput = runner.getSetValue();
+		for (SimulatedTalon talon : talons) {
+			talon.set(ControlMode.MotionProfile, setOutput.value);
+			talon.getMotionProfileStatus(status);
+			if (status.isUnderrun)
+				++underrunLoops;
+		}
+		if (setOutput == SetValueMotionProfile.Enable && enabledMs < 0)
+			enabledMs = nowMs;
+		if (setOutput == SetValueMotionProfile.Hold && enabledMs >= 0 && finishedMs < 0)
+			finishedMs = nowMs;
+	}
+
+	/**
+	 * Start the MP and simulate until it finishes.
+	 *
+	 * @param timeoutMs
+	 *            give up after this long
+	 * @return true if the MP finished
+	 */
+	public boolean run(long timeoutMs) {
+		start();
+		long endMs = nowMs + timeoutMs;
+		while (finishedMs < 0 && nowMs < endMs) {
+			step();
+		}
+		return finishedMs >= 0;
+	}
+
+	/** @return simulated time in ms */
+	public long getTimeMs() {
+		return nowMs;
+	}
+
+	/** @return ms from start() until the MP was enabled, or -1 */
+	public long getTimeToEnableMs() {
+		return (enabledMs < 0) ? -1 : enabledMs - startMs;
+	}
+
+	/** @return ms from start() until the MP finished, or -1 */
+	public long getTimeToFinishMs() {
+		return (finishedMs < 0) ? -1 : finishedMs - startMs;
+	}
+
+	/** @return loops where a Talon was reporting an underrun */
+	public int getUnderrunLoops() {
+		return underrunLoops;
+	}
+
+	/**
+	 * @return GeneratedMotionProfile in Talon units, converted the same way as
+	 *         MotionProfileExample
+	 */
+	public static TrajectoryBuffer generatedProfile() {
+		double[][] points = GeneratedMotionProfile.getPoints();
+		TrajectoryBuffer profile = new TrajectoryBuffer(points.length);
+		for (double[] row : points) {
+			profile.add(row[0] * Constants.kSensorUnitsPerRotation,
+					row[1] * Constants.kSensorUnitsPerRotation / 600.0, (int) row[2], 0);
+		}
+		return profile;
+	}
+
+	/** CAN latencies the simulation is run at, in ms. */
+	static final int[] kLatenciesMs = {1, 2, 5, 10, 20};
+	/** Longest the MP may take to enable after start(), in ms. */
+	static final long kMaxEnableMs = 5 * kLoopPeriodMs;
+	/**
+	 * Longest the MP may take to finish, in ms past the profile's own
+	 * duration.
+	 */
+	static final long kMaxFinishSlackMs = 5 * kLoopPeriodMs;
+	/** How far the final position may be off, as a fraction of the move. */
+	static final double kPositionTolerance = 0.02;
+	/**
+	 * Moves run one after another out of the same buffer, refilled in place
+	 * between them: longer, then shorter, than the one before. In rotations.
+	 */
+	static final double[] kRefillMovesRot = {10, 30, 15};
+	/** How fast the refilled moves go, in RPM and RPM per second. */
+	static final double kRefillCruiseRPM = 300;
+	static final double kRefillAccelRPMPerSec = 600;
+	/** CAN latency the refilled moves are run at, in ms. */
+	static final int kRefillLatencyMs = 5;
+
+	/**
+	 * Stream a profile through two simulated Talons.
+	 *
+	 * @return the finished simulation
+	 */
+	static MotionProfileSimulation simulate(TrajectoryBuffer profile, int latencyMs) {
+		SimulatedTalon[] talons = {new SimulatedTalon(latencyMs, 50), new SimulatedTalon(latencyMs, 50)};
+		MotionProfileSimulation sim = new MotionProfileSimulation(talons, new TrajectoryBuffer[] {profile, profile});
+		sim.run(60 * 1000);
+		return sim;
+	}
+
+	/**
+	 * Run GeneratedMotionProfile at every latency and check it finishes on
+	 * time, without underruns, where it should, and the same way twice.
+	 *
+	 * @return what went wrong, empty if everything passed
+	 */
+	public static List<String> check() {
+		List<String> failures = new ArrayList<String>();
+		TrajectoryBuffer profile;
+		try {
+			profile = generatedProfile();
+		} catch (IllegalStateException e) {
+			failures.add(e.getMessage());
+			return failures;
+		}
+		if (profile.length() == 0) {
+			failures.add("GeneratedMotionProfile has no points");
+			return failures;
+		}
+		long durationMs = 0;
+		for (int i = 0; i < profile.length(); ++i) {
+			durationMs += profile.durationMs[i];
+		}
+		double target = profile.position[profile.length() - 1];
+		double tolerance = Math.abs(target - profile.position[0]) * kPositionTolerance;
+
+		for (int latencyMs : kLatenciesMs) {
+			MotionProfileSimulation sim = simulate(profile, latencyMs);
+			String at = "latency " + latencyMs + "ms: ";
+			if (sim.getTimeToFinishMs() < 0) {
+				failures.add(at + "MP never finished");
+				continue;
+			}
+			if (sim.getTimeToEnableMs() > kMaxEnableMs) {
+				failures.add(at + "took " + sim.getTimeToEnableMs() + "ms to enable, expected at most " + kMaxEnableMs);
+			}
+			if (sim.getTimeToFinishMs() > durationMs + kMaxFinishSlackMs) {
+				failures.add(at + "took " + sim.getTimeToFinishMs() + "ms to finish a " + durationMs + "ms profile");
+			}
+			if (sim.getUnderrunLoops() > 0) {
+				failures.add(at + sim.getUnderrunLoops() + " loops with an underrun");
+			}
+			for (int d = 0; d < sim.talons.length; ++d) {
+				int pos = sim.talons[d].getSelectedSensorPosition(0);
+				if (Math.abs(pos - target) > tolerance) {
+					failures.add(at + "talon " + d + " ended at " + pos + ", expected " + target);
+				}
+			}
+			MotionProfileSimulation again = simulate(profile, latencyMs);
+			if (again.getTimeToEnableMs() != sim.getTimeToEnableMs()
+					|| again.getTimeToFinishMs() != sim.getTimeToFinishMs()
+					|| again.talons[0].getSelectedSensorPosition(0) != sim.talons[0].getSelectedSensorPosition(0)) {
+				failures.add(at + "two runs of the same profile came out differently");
+			}
+		}
+		failures.addAll(checkRefill());
+		return failures;
+	}
+
+	/**
+	 * Run {@link #kRefillMovesRot} from ProfileGenerator one after another on
+	 * the same runner, refilling its buffer in place with
+	 * ProfileGenerator.toBuffer() between them, and check each one runs the
+	 * move it was refilled with.
+	 *
+	 * @return what went wrong, empty if everything passed
+	 */
+	static List<String> checkRefill() {
+		List<String> failures = new ArrayList<String>();
+		ProfileGenerator generator = new ProfileGenerator(ProfileGenerator.kDefaultCapacity);
+		TrajectoryBuffer buffer = new TrajectoryBuffer(ProfileGenerator.kDefaultCapacity);
+		SimulatedTalon[] talons = {new SimulatedTalon(kRefillLatencyMs, 50), new SimulatedTalon(kRefillLatencyMs, 50)};
+		MotionProfileSimulation sim = null;
+		for (double moveRot : kRefillMovesRot) {
+			generator.trapezoid(moveRot, kRefillCruiseRPM, kRefillAccelRPMPerSec, Constants.kProfileDurationMs);
+			generator.toBuffer(buffer);
+			if (sim == null)
+				sim = new MotionProfileSimulation(talons, new TrajectoryBuffer[] {buffer, buffer});
+			String at = "refilled " + moveRot + " rotation move: ";
+			if (!sim.run(60 * 1000)) {
+				failures.add(at + "MP never finished");
+				continue;
+			}
+			if (sim.getTimeToFinishMs() > generator.getDurationMs() + kMaxFinishSlackMs) {
+				failures.add(at + "took " + sim.getTimeToFinishMs() + "ms to finish a " + generator.getDurationMs()
+						+ "ms profile");
+			}
+			if (sim.getUnderrunLoops() > 0) {
+				failures.add(at + sim.getUnderrunLoops() + " loops with an underrun");
+			}
+			double target = buffer.position[buffer.length() - 1];
+			for (int d = 0; d < talons.length; ++d) {
+				int pos = talons[d].getSelectedSensorPosition(0);
+				if (Math.abs(pos - target) > Math.abs(target) * kPositionTolerance) {
+					failures.add(at + "talon " + d + " ended at " + pos + ", expected " + target);
+				}
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @param args
+	 *            "check" to run {@link #check()} and exit non-zero if it
+	 *            fails, otherwise print a table of how each latency went
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("check")) {
+			List<String> failures = check();
+			for (String failure : failures) {
+				System.err.println("FAIL " + failure);
+			}
+			System.out.println(failures.isEmpty() ? "Simulation checks passed" : failures.size() + " simulation checks failed");
+			System.exit(failures.isEmpty() ? 0 : 1);
+		}
+		System.out.format("%-12s%-12s%-12s%-12s%-12s\n", "latencyMs", "enableMs", "finishMs", "underruns", "finalPos");
+		for (int latencyMs : kLatenciesMs) {
+			MotionProfileSimulation sim = simulate(generatedProfile(), latencyMs);
+			System.out.format("%-12d%-12d%-12d%-12d%-12d\n", latencyMs, sim.getTimeToEnableMs(),
+					sim.getTimeToFinishMs(), sim.getUnderrunLoops(), sim.talons[0].getSelectedSensorPosition(0));
+		}
+	}
+}
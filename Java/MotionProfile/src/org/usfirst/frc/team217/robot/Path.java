@@ -7,4 +7,58 @@ public abstract class Path {
 	public abstract Trajectory getRightTrajectory();
 	public abstract double[][] getLeftArray();
 	public abstract double[][] getRightArray();
+
+	/**
+	 * @return {@link PathCache} key of the waypoints, config and wheelbase
+	 *         the path is generated from. MappedPath checks a compiled file
+	 *         against it, so a file compiled before the path was changed isn't
+	 *         run.
+	 */
+	public abstract String getKey();
+
+	/**
+	 * @param trajectory
+	 *            trajectory to convert
+	 * @return rows of {position (ft), velocity (ft/sec), dt (sec)}, the format
+	 *         of {@link #getLeftArray()}
+	 */
+	public static double[][] toArray(Trajectory trajectory) {
+		double[][] array = new double[trajectory.length()][];
+		for (int i = 0; i < trajectory.length(); i++) {
+			Trajectory.Segment seg = trajectory.get(i);
+			array[i] = new double[] {seg.position, seg.velocity, seg.dt};
+		}
+		return array;
+	}
+
+	/**
+	 * Converted on first use, then shared. Each side has its own lock so both
+	 * can be converted at the same time, see PathLibrary.
+	 */
+	private TrajectoryBuffer leftBuffer;
+	private TrajectoryBuffer rightBuffer;
+	private final Object leftLock = new Object();
+	private final Object rightLock = new Object();
+
+	/**
+	 * @return the left side in Talon units, converted once and cached
+	 */
+	public TrajectoryBuffer getLeftBuffer() {
+		synchronized (leftLock) {
+			if (leftBuffer == null)
+				leftBuffer = TrajectoryBuffer.fromArray(getLeftArray(), getLeftTrajectory());
+			return leftBuffer;
+		}
+	}
+
+	/**
+	 * @return the right side in Talon units, converted once and cached
+	 */
+	public TrajectoryBuffer getRightBuffer() {
+		synchronized (rightLock) {
+			if (rightBuffer == null)
+				rightBuffer = TrajectoryBuffer.fromArray(getRightArray(), getRightTrajectory());
+			return rightBuffer;
+		}
+	}
 }
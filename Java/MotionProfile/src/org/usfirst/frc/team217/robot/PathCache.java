@@ -0,0 +1,135 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.TankModifier;
+
+/**
+ * Disk cache for generated trajectories. Entries are keyed by a hash of
+ * everything that goes into generating them (waypoints, fit method, sample
+ * count, dt, limits and wheelbase width), so changing any of those just misses
+ * and regenerates, no need to clear anything by hand.
+ *
+ * Files are written with Pathfinder's own serializer into {@link #DIR}.
+ */
+public class PathCache {
+
+	/** Bump this if what gets stored changes, so old entries miss. */
+	private static final int VERSION = 1;
+
+	/** Where entries are kept. On the roboRIO that's /home/lvuser/pathcache. */
+	public static final File DIR = new File(System.getProperty("user.home"), "pathcache");
+
+	/** The center trajectory and both sides of a tank modified path. */
+	public static class Trajectories {
+		public final Trajectory center;
+		public final Trajectory left;
+		public final Trajectory right;
+
+		Trajectories(Trajectory center, Trajectory left, Trajectory right) {
+			this.center = center;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * Get the trajectories for a path, from the cache if they were generated
+	 * before and otherwise by running Pathfinder and TankModifier.
+	 *
+	 * @param points
+	 *            waypoints of the path
+	 * @param config
+	 *            trajectory configuration
+	 * @param wheelbaseWidth
+	 *            wheelbase width for the TankModifier
+	 * @return center, left and right trajectories
+	 */
+	public static Trajectories generate(Waypoint[] points, Trajectory.Config config, double wheelbaseWidth) {
+		String key = key(points, config, wheelbaseWidth);
+		File centerFile = new File(DIR, key + "-center.bin");
+		File leftFile = new File(DIR, key + "-left.bin");
+		File rightFile = new File(DIR, key + "-right.bin");
+
+		if (centerFile.exists() && leftFile.exists() && rightFile.exists()) {
+			try {
+				return new Trajectories(Pathfinder.readFromFile(centerFile),
+						Pathfinder.readFromFile(leftFile), Pathfinder.readFromFile(rightFile));
+			} catch (RuntimeException e) {
+				/* a half written or corrupt entry, just regenerate it */
+				DriverStation.reportWarning("Bad path cache entry " + key + ", regenerating", false);
+			}
+		}
+
+		Trajectory center = Pathfinder.generate(points, config);
+		TankModifier modifier = new TankModifier(center).modify(wheelbaseWidth);
+		Trajectories generated = new Trajectories(center, modifier.getLeftTrajectory(),
+				modifier.getRightTrajectory());
+
+		try {
+			if (DIR.isDirectory() || DIR.mkdirs()) {
+				/* write the center last since a hit needs all three */
+				write(leftFile, generated.left);
+				write(rightFile, generated.right);
+				write(centerFile, generated.center);
+			}
+		} catch (RuntimeException e) {
+			/* not being able to cache isn't fatal, we have the path */
+			DriverStation.reportWarning("Could not cache path " + key + ": " + e.getMessage(), false);
+		}
+		return generated;
+	}
+
+	/**
+	 * Write to a temporary file and rename it into place, so a reader never
+	 * sees a partly written entry.
+	 */
+	private static void write(File file, Trajectory trajectory) {
+		File tmp = new File(file.getPath() + ".tmp");
+		Pathfinder.writeToFile(tmp, trajectory);
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return hex SHA-256 of everything that affects the generated path
+	 */
+	static String key(Waypoint[] points, Trajectory.Config config, double wheelbaseWidth) {
+		ByteBuffer buf = ByteBuffer.allocate(4 * 4 + 8 * 5 + points.length * 3 * 8);
+		buf.putInt(VERSION);
+		buf.putInt(config.fit.ordinal());
+		buf.putInt(config.sample_count);
+		buf.putDouble(config.dt);
+		buf.putDouble(config.max_velocity);
+		buf.putDouble(config.max_acceleration);
+		buf.putDouble(config.max_jerk);
+		buf.putDouble(wheelbaseWidth);
+		buf.putInt(points.length);
+		for (Waypoint point : points) {
+			buf.putDouble(point.x);
+			buf.putDouble(point.y);
+			buf.putDouble(point.angle);
+		}
+
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(buf.array());
+		} catch (NoSuchAlgorithmException e) {
+			/* every JRE has to provide SHA-256 */
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
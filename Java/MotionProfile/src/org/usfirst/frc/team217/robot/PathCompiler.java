@@ -0,0 +1,110 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import jaci.pathfinder.Trajectory;
+
+/**
+ * Build time step that generates every autonomous Path and writes it out in
+ * the format {@link MappedPath} maps at boot. Run by the compile-paths target
+ * in build.xml, which also copies the files to {@value MappedPath#DEPLOY_DIR}.
+ *
+ * Add new Path subclasses to {@link #PATHS} so they get compiled too.
+ */
+public class PathCompiler {
+
+	/** Every Path the robot loads. Each needs a no-arg constructor. */
+	static final Class<?>[] PATHS = {
+		MidSwitchLeft.class,
+	};
+
+	/**
+	 * @param args
+	 *            directory to write the trajectory files to
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args.length > 0 ? args[0] : "paths");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create " + dir);
+		}
+		/* generate them all at once, then write them out in order */
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		List<ForkJoinTask<Path>> generated = new ArrayList<ForkJoinTask<Path>>();
+		for (Class<?> pathClass : PATHS) {
+			generated.add(pool.submit(() -> (Path) pathClass.newInstance()));
+		}
+		for (int p = 0; p < PATHS.length; ++p) {
+			String name = PATHS[p].getSimpleName();
+			File file = new File(dir, name + MappedPath.EXTENSION);
+
+			Path path = generated.get(p).get();
+			write(path, file);
+			System.out.format("%-20s %6d points  %6.1f ms\n", name, path.getLeftArray().length,
+					(System.nanoTime() - start) / 1e6);
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Write both sides of a path to a trajectory file.
+	 *
+	 * @param path
+	 *            generated path
+	 * @param file
+	 *            file to (over)write
+	 * @throws IOException
+	 *             if the sides don't match, the path has no key, or the file
+	 *             can't be written
+	 */
+	public static void write(Path path, File file) throws IOException {
+		double[][] leftArray = path.getLeftArray();
+		double[][] rightArray = path.getRightArray();
+		int count = leftArray.length;
+		if (rightArray.length != count) {
+			throw new IOException("Left and right sides have " + count + " and " + rightArray.length + " points");
+		}
+		String key = path.getKey();
+		if (key == null || key.length() != MappedPath.KEY_SIZE) {
+			throw new IOException("Path key " + key + " isn't a " + MappedPath.KEY_SIZE + " character PathCache key");
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MappedPath.MAGIC);
+			out.writeInt(MappedPath.VERSION);
+			out.writeInt(count);
+			out.write(key.getBytes(StandardCharsets.US_ASCII));
+			writeSide(out, leftArray, path.getLeftTrajectory());
+			writeSide(out, rightArray, path.getRightTrajectory());
+		}
+	}
+
+	private static void writeSide(DataOutputStream out, double[][] array, Trajectory trajectory) throws IOException {
+		/* one column at a time, see MappedPath */
+		for (int c = 0; c < 3; ++c) {
+			for (double[] point : array) {
+				out.writeDouble(point[c]);
+			}
+		}
+		/* heading, x and y only live in the segments, if they line up with the array */
+		boolean hasSegments = trajectory != null && trajectory.length() == array.length;
+		for (int i = 0; i < array.length; ++i) {
+			out.writeDouble(hasSegments ? trajectory.get(i).heading : 0);
+		}
+		for (int i = 0; i < array.length; ++i) {
+			out.writeDouble(hasSegments ? trajectory.get(i).x : 0);
+		}
+		for (int i = 0; i < array.length; ++i) {
+			out.writeDouble(hasSegments ? trajectory.get(i).y : 0);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Loads every autonomous Path at once on a ForkJoinPool instead of one after
+ * another on the main robot thread.
+ *
+ * Each path is mapped from its compiled file or generated (see
+ * {@link MappedPath#load(String, String, Supplier)}), then its left and right sides
+ * are converted to Talon units as two forked subtasks. Registering a path only
+ * starts that work. Nothing blocks until {@link #get(String)} is called for a
+ * path that isn't done yet, so register everything as early as possible and
+ * get each path when it is first needed.
+ */
+public class PathLibrary {
+
+	private final ForkJoinPool pool;
+	private final Map<String, ForkJoinTask<Path>> paths = new LinkedHashMap<String, ForkJoinTask<Path>>();
+
+	/** A library with its own pool, one thread per core. */
+	public PathLibrary() {
+		/*
+		 * not the common pool, that leaves a core for the caller which on a
+		 * roboRIO means only one worker
+		 */
+		this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @param pool
+	 *            pool to load paths on
+	 */
+	public PathLibrary(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Start loading a path in the background.
+	 *
+	 * @param name
+	 *            class name the path was compiled under
+	 * @param key
+	 *            {@link Path#getKey()} of the path as it is now, so an out of
+	 *            date compiled file isn't used
+	 * @param generator
+	 *            used when there is no compiled file, or it is out of date
+	 * @return the path, once it and both of its converted sides are ready
+	 */
+	public synchronized Future<Path> register(String name, String key, Supplier<Path> generator) {
+		if (paths.containsKey(name)) {
+			throw new IllegalArgumentException(name + " is already registered");
+		}
+		ForkJoinTask<Path> task = pool.submit(new LoadTask(name, key, generator));
+		paths.put(name, task);
+		return task;
+	}
+
+	/**
+	 * Get a registered path, waiting for it if it is still loading.
+	 *
+	 * @param name
+	 *            name it was registered under
+	 * @return the path
+	 */
+	public Path get(String name) {
+		ForkJoinTask<Path> task;
+		synchronized (this) {
+			task = paths.get(name);
+		}
+		if (task == null) {
+			throw new IllegalArgumentException(name + " was never registered");
+		}
+		return task.join();
+	}
+
+	/** @return true once every registered path is ready */
+	public synchronized boolean isDone() {
+		for (ForkJoinTask<Path> task : paths.values()) {
+			if (!task.isDone())
+				return false;
+		}
+		return true;
+	}
+
+	/** Loads one path, then converts both sides at the same time. */
+	private static class LoadTask extends RecursiveTask<Path> {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final String key;
+		private final Supplier<Path> generator;
+
+		LoadTask(String name, String key, Supplier<Path> generator) {
+			this.name = name;
+			this.key = key;
+			this.generator = generator;
+		}
+
+		@Override
+		protected Path compute() {
+			Path path = MappedPath.load(name, key, generator);
+			ForkJoinTask<TrajectoryBuffer> right = ForkJoinTask.adapt(path::getRightBuffer).fork();
+			path.getLeftBuffer();
+			right.join();
+			return path;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package org.usfirst.frc.team217.robot;
+
+import jaci.pathfinder.Trajectory;
+
+/**
+ * Works out a new velocity profile along the shape of a tank path, so that
+ * neither side goes over the drivetrain's velocity or acceleration limits.
+ *
+ * Pathfinder limits the center of the robot, so on a tight arc the outside
+ * wheel goes faster than the config allows, and the only fix there is to slow
+ * down the whole path. Here the limits apply to each side: curves slow down
+ * just as much as they need to and straights run at full speed.
+ *
+ * The curvature is read off the TankModifier sides rather than the headings:
+ * each side covers 1 +/- curvature * width / 2 feet per foot of center path,
+ * which is exactly how much faster (or slower) it goes, and doesn't need the
+ * wheelbase width.
+ *
+ * The planning is done along the path, segment by segment: a cap on the
+ * center velocity at each one so neither side is over the max, a forward pass
+ * accelerating from the start velocity, and a backward pass decelerating to a
+ * stop at the end, both keeping the center and each side under the max
+ * acceleration, repeated until they agree. The result is resampled every dt,
+ * accelerating constantly between segments, with positions integrated from
+ * the velocity so the two agree.
+ */
+public class PathRetimer {
+
+	/** Index of each trajectory in what retime() returns. */
+	public static final int CENTER = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+
+	/** Most forward and backward passes to make before giving up on settling. */
+	private static final int kMaxPasses = 50;
+	/** Velocity changes smaller than this fraction don't count as a change. */
+	private static final double kTolerance = 1e-6;
+
+	/**
+	 * @param center
+	 *            center trajectory, for the distance along the path and heading
+	 * @param left
+	 *            left side, for the distance it covers
+	 * @param right
+	 *            right side
+	 * @param startVelocity
+	 *            center velocity at the start, in ft/sec
+	 * @param maxVelocity
+	 *            most any side may go, in ft/sec
+	 * @param maxAcceleration
+	 *            most the center or any side may accelerate, in ft/sec/sec
+	 * @param dt
+	 *            time between segments of the result, in sec
+	 * @return the center, left and right trajectories retimed, indexed by
+	 *         {@link #CENTER}, {@link #LEFT} and {@link #RIGHT}. Positions
+	 *         start from zero; x, y and heading are kept.
+	 */
+	public static Trajectory[] retime(Trajectory center, Trajectory left, Trajectory right, double startVelocity,
+			double maxVelocity, double maxAcceleration, double dt) {
+		int n = center.length();
+		if (n < 2 || left.length() != n || right.length() != n) {
+			throw new IllegalArgumentException("Need at least two segments on every side to retime");
+		}
+		double[] s = new double[n];
+		double[] l = new double[n];
+		double[] r = new double[n];
+		for (int k = 0; k < n; ++k) {
+			/* measured from the first segment, so everything starts at zero */
+			s[k] = center.get(k).position - center.get(0).position;
+			l[k] = left.get(k).position - left.get(0).position;
+			r[k] = right.get(k).position - right.get(0).position;
+		}
+
+		/* each side goes dl/ds times as fast as the center */
+		double[] lSlope = new double[n];
+		double[] rSlope = new double[n];
+		double[] lRatio = new double[n];
+		double[] rRatio = new double[n];
+		double[] v = new double[n];
+		for (int k = 0; k < n; ++k) {
+			int a = Math.max(k - 1, 0);
+			int b = Math.min(k + 1, n - 1);
+			double ds = s[b] - s[a];
+			lSlope[k] = (ds > 0) ? (l[b] - l[a]) / ds : 1;
+			rSlope[k] = (ds > 0) ? (r[b] - r[a]) / ds : 1;
+			lRatio[k] = Math.abs(lSlope[k]);
+			rRatio[k] = Math.abs(rSlope[k]);
+			v[k] = maxVelocity / Math.max(1, Math.max(lRatio[k], rRatio[k]));
+		}
+		/*
+		 * forward from the current velocity, backward to a stop. Slowing down
+		 * for one side in the backward pass can leave the other speeding up too
+		 * hard where the curvature changes quickly, so go again until nothing
+		 * changes.
+		 */
+		v[0] = Math.min(v[0], startVelocity);
+		v[n - 1] = 0;
+		boolean changed = true;
+		for (int pass = 0; changed && pass < kMaxPasses; ++pass) {
+			changed = false;
+			for (int k = 1; k < n; ++k) {
+				double limit = reachable(v[k - 1], k - 1, k, s, l, r, lRatio, rRatio, maxAcceleration);
+				if (limit < v[k] * (1 - kTolerance)) {
+					v[k] = limit;
+					changed = true;
+				}
+			}
+			for (int k = n - 2; k >= 0; --k) {
+				double limit = reachable(v[k + 1], k + 1, k, s, l, r, lRatio, rRatio, maxAcceleration);
+				if (limit < v[k] * (1 - kTolerance)) {
+					v[k] = limit;
+					changed = true;
+				}
+			}
+		}
+
+		/* time at each segment, constant acceleration between them */
+		double[] t = new double[n];
+		for (int k = 1; k < n; ++k) {
+			double avg = (v[k - 1] + v[k]) / 2;
+			t[k] = t[k - 1] + ((avg > 0) ? (s[k] - s[k - 1]) / avg : 0);
+		}
+
+		int count = (int) Math.ceil(t[n - 1] / dt) + 1;
+		Trajectory.Segment[] centerOut = new Trajectory.Segment[count];
+		Trajectory.Segment[] leftOut = new Trajectory.Segment[count];
+		Trajectory.Segment[] rightOut = new Trajectory.Segment[count];
+		int k = 0;
+		for (int i = 0; i < count; ++i) {
+			double time = Math.min(i * dt, t[n - 1]);
+			while (k < n - 2 && t[k + 1] <= time) {
+				++k;
+			}
+			double span = t[k + 1] - t[k];
+			double tau = (span > 0) ? time - t[k] : 0;
+			double f = (span > 0) ? tau / span : 1;
+			double vel = v[k] + f * (v[k + 1] - v[k]);
+			/*
+			 * constant acceleration across the span, so position has to be
+			 * integrated from the velocity rather than interpolated, or the two
+			 * disagree by up to a span^2 / 8
+			 */
+			double pos = (span > 0) ? s[k] + v[k] * tau + (v[k + 1] - v[k]) / (2 * span) * tau * tau : s[k + 1];
+			/* how far along the span that is, for where each side and the robot are */
+			double ds = s[k + 1] - s[k];
+			double g = (ds > 0) ? (pos - s[k]) / ds : f;
+			/* the same smoothed ratios the plan used, so the sides change speed smoothly */
+			double dl = lSlope[k] + f * (lSlope[k + 1] - lSlope[k]);
+			double dr = rSlope[k] + f * (rSlope[k + 1] - rSlope[k]);
+			centerOut[i] = segment(center, k, g, dt, pos, vel, (i > 0) ? centerOut[i - 1] : null);
+			leftOut[i] = segment(left, k, g, dt, l[k] + g * (l[k + 1] - l[k]), vel * dl,
+					(i > 0) ? leftOut[i - 1] : null);
+			rightOut[i] = segment(right, k, g, dt, r[k] + g * (r[k + 1] - r[k]), vel * dr,
+					(i > 0) ? rightOut[i - 1] : null);
+		}
+		return new Trajectory[] {new Trajectory(centerOut), new Trajectory(leftOut), new Trajectory(rightOut)};
+	}
+
+	/**
+	 * @return fastest the center can be going at segment "to", coming from
+	 *         segment "from" at velocity vFrom, without the center or either
+	 *         side accelerating faster than maxAcceleration over the distance
+	 *         it covers
+	 */
+	private static double reachable(double vFrom, int from, int to, double[] s, double[] l, double[] r,
+			double[] lRatio, double[] rRatio, double maxAcceleration) {
+		double best = Math.sqrt(vFrom * vFrom + 2 * maxAcceleration * Math.abs(s[to] - s[from]));
+		best = Math.min(best, sideReachable(vFrom, lRatio[from], lRatio[to], Math.abs(l[to] - l[from]), maxAcceleration));
+		best = Math.min(best, sideReachable(vFrom, rRatio[from], rRatio[to], Math.abs(r[to] - r[from]), maxAcceleration));
+		return best;
+	}
+
+	private static double sideReachable(double vFrom, double ratioFrom, double ratioTo, double distance,
+			double maxAcceleration) {
+		if (ratioTo <= 0) {
+			/* this side is stopped (turning in place), it doesn't limit the center */
+			return Double.POSITIVE_INFINITY;
+		}
+		double sideFrom = vFrom * ratioFrom;
+		return Math.sqrt(sideFrom * sideFrom + 2 * maxAcceleration * distance) / ratioTo;
+	}
+
+	/** Segment f of the way from segment k to k+1 of the original, retimed. */
+	private static Trajectory.Segment segment(Trajectory original, int k, double f, double dt, double position,
+			double velocity, Trajectory.Segment previous) {
+		Trajectory.Segment a = original.get(k);
+		Trajectory.Segment b = original.get(k + 1);
+		double acceleration = (previous != null) ? (velocity - previous.velocity) / dt : 0;
+		double jerk = (previous != null) ? (acceleration - previous.acceleration) / dt : 0;
+		/* headings are bounded to [0,2pi), so interpolate the short way round */
+		double turn = Math.IEEEremainder(b.heading - a.heading, 2 * Math.PI);
+		return new Trajectory.Segment(dt, a.x + f * (b.x - a.x), a.y + f * (b.y - a.y), position, velocity,
+				acceleration, jerk, a.heading + f * turn);
+	}
+}
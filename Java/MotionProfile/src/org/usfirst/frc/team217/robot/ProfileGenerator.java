@@ -0,0 +1,211 @@
+package org.usfirst.frc.team217.robot;
+
+/**
+ * Generates straight-line moves at runtime instead of in "Motion Profile
+ * Generator.xlsx": trapezoids (limited acceleration) and S-curves (limited
+ * jerk too), from rest to rest.
+ *
+ * Every sample is worked out in closed form from its time, so there is no
+ * integrating and no error building up along the move. The rows are written
+ * into arrays allocated once in the constructor and reused by every move, in
+ * the same columns as GeneratedMotionProfile: position (rotations), velocity
+ * (RPM), duration (ms).
+ *
+ * Moves too short to reach the cruise velocity peak lower, at whatever
+ * velocity covers the distance within the acceleration and jerk limits.
+ */
+public class ProfileGenerator {
+
+	/** Enough for 20 seconds of 10ms points. */
+	public static final int kDefaultCapacity = 2000;
+
+	private final double[][] points;
+	private int numPoints = 0;
+
+	/** Shape of the last move: seconds, rotations and rotations per second. */
+	private double tj, ta, tv, total;
+	private double accelPeak, velPeak, accelDist;
+
+	/**
+	 * @param capacity
+	 *            most points a move can have
+	 */
+	public ProfileGenerator(int capacity) {
+		points = new double[capacity][3];
+	}
+
+	/**
+	 * Generate a trapezoid: constant acceleration up to the cruise velocity and
+	 * back down.
+	 *
+	 * @param distanceRot
+	 *            how far to move, in rotations, negative to move backwards
+	 * @param cruiseRPM
+	 *            fastest to go, in RPM
+	 * @param accelRPMPerSec
+	 *            fastest to speed up or slow down, in RPM per second
+	 * @param durationMs
+	 *            time between points, one the Talon supports
+	 * @return number of points
+	 */
+	public int trapezoid(double distanceRot, double cruiseRPM, double accelRPMPerSec, int durationMs) {
+		return sCurve(distanceRot, cruiseRPM, accelRPMPerSec, Double.POSITIVE_INFINITY, durationMs);
+	}
+
+	/**
+	 * Generate an S-curve: the acceleration ramps up and down at a limited
+	 * jerk, instead of stepping, for a smoother start and stop.
+	 *
+	 * @param distanceRot
+	 *            how far to move, in rotations, negative to move backwards
+	 * @param cruiseRPM
+	 *            fastest to go, in RPM
+	 * @param accelRPMPerSec
+	 *            fastest to speed up or slow down, in RPM per second
+	 * @param jerkRPMPerSec2
+	 *            fastest the acceleration may change, in RPM per second per
+	 *            second. Infinite for a trapezoid.
+	 * @param durationMs
+	 *            time between points, one the Talon supports
+	 * @return number of points
+	 */
+	public int sCurve(double distanceRot, double cruiseRPM, double accelRPMPerSec, double jerkRPMPerSec2,
+			int durationMs) {
+		if (!(cruiseRPM > 0 && accelRPMPerSec > 0 && jerkRPMPerSec2 > 0 && durationMs > 0)) {
+			throw new IllegalArgumentException("Velocity, acceleration, jerk and duration must be positive");
+		}
+		double sign = Math.signum(distanceRot);
+		double d = Math.abs(distanceRot);
+		/* everything from here on in rotations and seconds */
+		double v = cruiseRPM / 60;
+		double a = accelRPMPerSec / 60;
+		double j = jerkRPMPerSec2 / 60;
+		double dt = durationMs / 1000.0;
+
+		shape(d, v, a, j);
+
+		int n = (int) Math.ceil(total / dt - 1e-9) + 1;
+		if (n > points.length) {
+			throw new IllegalArgumentException(
+					"Move needs " + n + " points, the generator only holds " + points.length);
+		}
+		for (int i = 0; i < n; ++i) {
+			double t = Math.min(i * dt, total);
+			double pos, vel;
+			if (t <= ta) {
+				pos = accelPosition(t);
+				vel = accelVelocity(t);
+			} else if (t < ta + tv) {
+				pos = accelDist + velPeak * (t - ta);
+				vel = velPeak;
+			} else {
+				/* the decel is the accel backwards from the end */
+				double u = total - t;
+				pos = d - accelPosition(u);
+				vel = accelVelocity(u);
+			}
+			double[] row = points[i];
+			row[0] = sign * pos;
+			row[1] = sign * vel * 60;
+			row[2] = durationMs;
+		}
+		/* land exactly on the target */
+		points[n - 1][0] = distanceRot;
+		points[n - 1][1] = 0;
+		numPoints = n;
+		return n;
+	}
+
+	/**
+	 * Work out the phase times for a move of d, so the accel and decel are
+	 * symmetric around a cruise of tv.
+	 */
+	private void shape(double d, double v, double a, double j) {
+		/* a/j and a*a/j are zero for a trapezoid, which is what we want */
+		double aOverJ = a / j;
+		double vFullAccel = a * aOverJ;
+		/* distance to get to v and back down is v * (accel time) */
+		double accelTime = (v >= vFullAccel) ? v / a + aOverJ : 2 * Math.sqrt(v / j);
+		if (d >= v * accelTime) {
+			velPeak = v;
+		} else {
+			/* too short to reach v, solve d = peak * accelTime(peak) for the peak */
+			double peak = (-vFullAccel + Math.sqrt(vFullAccel * vFullAccel + 4 * a * d)) / 2;
+			if (peak < vFullAccel) {
+				/* doesn't reach a either, d = 2 peak^1.5 / sqrt(j) */
+				peak = Math.cbrt(d * d * j / 4);
+			}
+			velPeak = peak;
+		}
+		if (velPeak >= vFullAccel) {
+			tj = aOverJ;
+			accelPeak = a;
+			ta = velPeak / a + aOverJ;
+		} else {
+			tj = Math.sqrt(velPeak / j);
+			accelPeak = j * tj;
+			ta = 2 * tj;
+		}
+		accelDist = velPeak * ta / 2;
+		tv = (velPeak > 0) ? (d - 2 * accelDist) / velPeak : 0;
+		tv = Math.max(0, tv);
+		total = 2 * ta + tv;
+	}
+
+	/** Velocity t seconds into the accel. */
+	private double accelVelocity(double t) {
+		if (t < tj) {
+			return accelPeak / tj * t * t / 2;
+		} else if (t <= ta - tj) {
+			return accelPeak * tj / 2 + accelPeak * (t - tj);
+		}
+		double u = ta - t;
+		return velPeak - accelPeak / tj * u * u / 2;
+	}
+
+	/** Distance covered t seconds into the accel. */
+	private double accelPosition(double t) {
+		if (t < tj) {
+			return accelPeak / tj * t * t * t / 6;
+		} else if (t <= ta - tj) {
+			double v1 = accelPeak * tj / 2;
+			double s1 = accelPeak * tj * tj / 6;
+			double u = t - tj;
+			return s1 + v1 * u + accelPeak * u * u / 2;
+		}
+		double u = ta - t;
+		return accelDist - (velPeak * u - accelPeak / tj * u * u * u / 6);
+	}
+
+	/** @return rows of the last move, only the first {@link #getNumPoints()} are valid */
+	public double[][] getPoints() {
+		return points;
+	}
+
+	/** @return number of points in the last move */
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	/** @return how long the last move takes, in ms */
+	public double getDurationMs() {
+		return total * 1000;
+	}
+
+	/**
+	 * Convert the last move into Talon units, for MotionProfileRunner.
+	 *
+	 * @param buffer
+	 *            buffer to refill, with room for {@link #getNumPoints()}
+	 * @return buffer
+	 */
+	public TrajectoryBuffer toBuffer(TrajectoryBuffer buffer) {
+		buffer.clear();
+		for (int i = 0; i < numPoints; ++i) {
+			double[] row = points[i];
+			buffer.add(row[0] * Constants.kSensorUnitsPerRotation, row[1] * Constants.kSensorUnitsPerRotation / 600.0,
+					(int) row[2], 0);
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,153 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs motion profiles into binary resources that go on the classpath next
+ * to the classes, instead of pasting them into a Java array literal. A literal
+ * compiles into a static initializer that builds every row one element at a
+ * time, which is slow to load and won't even compile past a few thousand
+ * points. A resource is read in one go when it's first used.
+ *
+ * The format is columns, so loading is a few bulk reads:
+ *
+ * <pre>
+ * int magic, int version, int count
+ * double position[count] (rotations), double velocity[count] (RPM), int durationMs[count]
+ * </pre>
+ *
+ * Run main() on a CSV export of "Motion Profile Generator.xlsx" (the
+ * generate-profiles target in build.xml does), or call write() with rows
+ * built in code.
+ */
+public class ProfileResourceGenerator {
+
+	/** "MPRF", so we don't read something that isn't a profile. */
+	public static final int MAGIC = 0x4D505246;
+	public static final int VERSION = 1;
+	public static final String EXTENSION = ".mprof";
+
+	/**
+	 * @param args
+	 *            CSV file to read, then resource file to write
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: ProfileResourceGenerator <profile.csv> <profile" + EXTENSION + ">");
+			System.exit(1);
+		}
+		double[][] points = readCsv(new File(args[0]));
+		write(points, new File(args[1]));
+		System.out.format("%s: %d points\n", args[1], points.length);
+	}
+
+	/**
+	 * Read rows of position (rotations), velocity (RPM) and duration (ms),
+	 * separated by commas or tabs. Lines that don't start with three numbers,
+	 * like headers, are skipped.
+	 *
+	 * @param csv
+	 *            file to read
+	 * @return rows of {position, velocity, duration}
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static double[][] readCsv(File csv) throws IOException {
+		List<double[]> rows = new ArrayList<double[]>();
+		try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] cells = line.split("[,\t]");
+				if (cells.length < 3)
+					continue;
+				try {
+					rows.add(new double[] {Double.parseDouble(cells[0].trim()), Double.parseDouble(cells[1].trim()),
+							Double.parseDouble(cells[2].trim())});
+				} catch (NumberFormatException e) {
+					/* header or blank line */
+				}
+			}
+		}
+		return rows.toArray(new double[rows.size()][]);
+	}
+
+	/**
+	 * Write a profile resource.
+	 *
+	 * @param points
+	 *            rows of {position (rotations), velocity (RPM), duration (ms)}
+	 * @param file
+	 *            file to (over)write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(double[][] points, File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(points.length);
+			for (double[] row : points) {
+				out.writeDouble(row[0]);
+			}
+			for (double[] row : points) {
+				out.writeDouble(row[1]);
+			}
+			for (double[] row : points) {
+				out.writeInt((int) Math.round(row[2]));
+			}
+		}
+	}
+
+	/**
+	 * Read a profile resource written by {@link #write(double[][], File)}.
+	 *
+	 * @param stream
+	 *            resource to read, closed when done
+	 * @param name
+	 *            for error messages
+	 * @return rows of {position (rotations), velocity (RPM), duration (ms)}
+	 * @throws IOException
+	 *             if it can't be read or isn't a profile resource
+	 */
+	public static double[][] read(InputStream stream, String name) throws IOException {
+		if (stream == null) {
+			throw new IOException(name + " is not on the classpath");
+		}
+		try (DataInputStream in = new DataInputStream(stream)) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(name + " is not a profile resource");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(name + " is version " + version + ", expected " + VERSION);
+			}
+			int count = in.readInt();
+			/* read it all at once, then split it into columns */
+			byte[] bytes = new byte[count * (8 + 8 + 4)];
+			in.readFully(bytes);
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			double[][] points = new double[count][3];
+			for (int i = 0; i < count; ++i) {
+				points[i][0] = buf.getDouble();
+			}
+			for (int i = 0; i < count; ++i) {
+				points[i][1] = buf.getDouble();
+			}
+			for (int i = 0; i < count; ++i) {
+				points[i][2] = buf.getInt();
+			}
+			return points;
+		}
+	}
+}
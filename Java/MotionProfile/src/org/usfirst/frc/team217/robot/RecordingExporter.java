@@ -0,0 +1,104 @@
+package org.usfirst.frc.team217.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offline reader for {@link MotionProfileRecorder} files. Copy the recording
+ * off the robot and run
+ *
+ * <pre>
+ * java org.usfirst.frc.team217.robot.RecordingExporter mp.rec [mp.csv]
+ * </pre>
+ *
+ * to get one CSV row per record. Without an output file the CSV goes to
+ * stdout.
+ */
+public class RecordingExporter {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: RecordingExporter <recording> [csv]");
+			System.exit(1);
+		}
+		if (args.length > 1) {
+			try (PrintStream out = new PrintStream(args[1])) {
+				export(new File(args[0]), out);
+			}
+		} else {
+			export(new File(args[0]), System.out);
+		}
+	}
+
+	/**
+	 * Write a recording out as CSV.
+	 *
+	 * @param recording
+	 *            file written by MotionProfileRecorder
+	 * @param out
+	 *            where to print the CSV
+	 * @return number of records exported
+	 * @throws IOException
+	 *             if the file can't be read or isn't a recording
+	 */
+	public static int export(File recording, PrintStream out) throws IOException {
+		ByteBuffer buf;
+		try (RandomAccessFile raf = new RandomAccessFile(recording, "r");
+				FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buf.order(ByteOrder.BIG_ENDIAN);
+		if (buf.capacity() < MotionProfileRecorder.HEADER_SIZE || buf.getInt() != MotionProfileRecorder.MAGIC) {
+			throw new IOException(recording + " is not a motion profile recording");
+		}
+		int version = buf.getInt();
+		if (version != MotionProfileRecorder.VERSION) {
+			throw new IOException(recording + " is version " + version + ", expected " + MotionProfileRecorder.VERSION);
+		}
+		int recordSize = buf.getInt();
+		int count = buf.getInt();
+		/* a recording cut short by a crash may say it holds more than it does */
+		count = Math.min(count, (buf.capacity() - MotionProfileRecorder.HEADER_SIZE) / recordSize);
+
+		out.println("timeMs,device,outEn,topCnt,topRem,btmCnt,IsValid,HasUnder,IsUnder,IsLast,"
+				+ "timeDurMs,SlotSel0,targPos,targVel,targHeading,sensorPos,sensorVel");
+		long firstNs = 0;
+		for (int i = 0; i < count; ++i) {
+			buf.position(MotionProfileRecorder.HEADER_SIZE + i * recordSize);
+			long timeNs = buf.getLong();
+			if (i == 0)
+				firstNs = timeNs;
+			int device = buf.getInt();
+			int outputEnable = buf.getInt();
+			int topBufferCnt = buf.getInt();
+			int topBufferRem = buf.getInt();
+			int btmBufferCnt = buf.getInt();
+			int flags = buf.getInt();
+			int timeDurMs = buf.getInt();
+			int profileSlotSelect = buf.getInt();
+			double targPos = buf.getDouble();
+			double targVel = buf.getDouble();
+			double targHeading = buf.getDouble();
+			int sensorPos = buf.getInt();
+			int sensorVel = buf.getInt();
+
+			out.format("%.3f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%s,%s,%s,%d,%d\n",
+					(timeNs - firstNs) / 1e6, device, outputEnable, topBufferCnt, topBufferRem, btmBufferCnt,
+					flag(flags, MotionProfileRecorder.FLAG_VALID),
+					flag(flags, MotionProfileRecorder.FLAG_HAS_UNDERRUN),
+					flag(flags, MotionProfileRecorder.FLAG_IS_UNDERRUN),
+					flag(flags, MotionProfileRecorder.FLAG_IS_LAST),
+					timeDurMs, profileSlotSelect, targPos, targVel, targHeading, sensorPos, sensorVel);
+		}
+		return count;
+	}
+
+	private static int flag(int flags, int bit) {
+		return (flags & bit) != 0 ? 1 : 0;
+	}
+}
@@ -0,0 +1,196 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.TankModifier;
+
+/**
+ * Plans a new drivetrain path part way through an MP, starting from where the
+ * running one is and at the speed it is going, and splices it into the
+ * MotionProfileRunner in place of the rest of the old one.
+ *
+ * The new path starts at the runner's splice point, the last point pushed to
+ * the Talons, which is held there while planning (see
+ * {@link MotionProfileRunner#holdSplicePoint()}). It takes over once the
+ * Talons have run the points they already hold, so give the runner a short
+ * {@link MotionProfileRunner#setReplanWindowMs(int) replan window}
+ * ({@link #kReplanWindowMs}), or that can be seconds of the old path.
+ *
+ * Pathfinder always plans from a stop, so it is only used for the shape of the
+ * path: the center trajectory and the distance each side covers along it. The
+ * speed along that shape is then worked out again by PathRetimer, starting
+ * from the current velocity and keeping each side under the max velocity and
+ * acceleration through turns.
+ *
+ * Planning runs on a worker thread and never blocks the caller: replan()
+ * starts it and update(), called every loop, splices the result in when it is
+ * ready. If it runs over its time budget, the old path is kept and the MP
+ * carries on as if nothing happened. Pathfinder can't be interrupted, so no
+ * new replan is started until the one that ran over is done. Use a
+ * SAMPLES_FAST config to keep short paths well inside a 20ms loop. Call it from
+ * the robot thread only.
+ */
+public class Replanner {
+
+	/** How long a replan may take by default, in ms. */
+	public static final long kDefaultBudgetMs = 10;
+	/**
+	 * Replan window to give the runner, in ms: enough for a hold to outlast
+	 * the budget and the loop it takes update() to see the plan, on top of
+	 * what the hold always leaves in the Talons.
+	 */
+	public static final int kReplanWindowMs = 150;
+
+	private final Trajectory.Config config;
+	private final double wheelbaseWidth;
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Replanner");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** The replan being worked on, or the last one if it ran over and is still going. */
+	private Future<TrajectoryBuffer[]> pending = null;
+	/** Runner to splice pending into, null once it has been or was given up on. */
+	private MotionProfileRunner target = null;
+	private long deadlineNs = 0;
+	private long budgetMs = 0;
+
+	/**
+	 * @param config
+	 *            shape and limits of the new paths. max_velocity and
+	 *            max_acceleration are also what the retiming uses.
+	 * @param wheelbaseWidth
+	 *            wheelbase width for the TankModifier, in feet
+	 */
+	public Replanner(Trajectory.Config config, double wheelbaseWidth) {
+		this.config = config;
+		this.wheelbaseWidth = wheelbaseWidth;
+	}
+
+	/**
+	 * Start planning a new path for a two sided runner, from its splice point.
+	 * Call {@link #update()} every loop after this to splice it in.
+	 *
+	 * @param runner
+	 *            runner with the left side at {@link MotionProfileRunner#LEFT}
+	 *            and right at {@link MotionProfileRunner#RIGHT}, streaming a
+	 *            profile from a path
+	 * @param waypoints
+	 *            where to go from the splice point, at least one
+	 * @param budgetMs
+	 *            most time to spend planning
+	 * @return false if nothing was started, because a replan is still being
+	 *         worked on or there is nothing left of the MP to replace
+	 */
+	public boolean replan(MotionProfileRunner runner, Waypoint[] waypoints, long budgetMs) {
+		if (waypoints.length == 0) {
+			throw new IllegalArgumentException("Need a waypoint to replan to");
+		}
+		if (pending != null && !pending.isDone()) {
+			return false;
+		}
+		if (!runner.holdSplicePoint()) {
+			return false;
+		}
+		/* held, so these are where the new path will start */
+		Waypoint[] points = new Waypoint[waypoints.length + 1];
+		points[0] = runner.getSplicePose();
+		System.arraycopy(waypoints, 0, points, 1, waypoints.length);
+		double startVelocity = MotionProfileRunner.unitsPerRev2Fps(
+				(runner.getStreamedVelocity(MotionProfileRunner.LEFT) + runner.getStreamedVelocity(MotionProfileRunner.RIGHT)) / 2);
+		pending = plan(points, startVelocity);
+		target = runner;
+		this.budgetMs = budgetMs;
+		deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+		return true;
+	}
+
+	/**
+	 * Check on the replan started by replan(). Never waits for it.
+	 *
+	 * @return true if the new path was spliced in just now
+	 */
+	public boolean update() {
+		if (target == null) {
+			return false;
+		}
+		if (!pending.isDone()) {
+			if (System.nanoTime() - deadlineNs >= 0) {
+				/* let the runner carry on, the worker finishes in its own time */
+				target.releaseSplicePoint();
+				target = null;
+				DriverStation.reportWarning("Replanning took over " + budgetMs + "ms, keeping the current path", false);
+			}
+			return false;
+		}
+		MotionProfileRunner runner = target;
+		target = null;
+		try {
+			if (runner.replaceMotionProfile(pending.get())) {
+				return true;
+			}
+			DriverStation.reportWarning("Replanned too late to splice in, keeping the current path", false);
+		} catch (ExecutionException e) {
+			runner.releaseSplicePoint();
+			DriverStation.reportError("Replanning failed: " + e.getCause(), false);
+		} catch (InterruptedException e) {
+			/* can't happen, it is done */
+			runner.releaseSplicePoint();
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/** @return true while a replan is waiting to be spliced in */
+	public boolean isReplanning() {
+		return target != null;
+	}
+
+	/**
+	 * Start planning on the worker thread, from a given state rather than a
+	 * runner's splice point.
+	 *
+	 * @param points
+	 *            waypoints of the new path
+	 * @param startVelocity
+	 *            velocity of the robot at the first waypoint, in ft/sec
+	 * @return left and right profiles in Talon units. The first point of each
+	 *         is at the first waypoint, going startVelocity.
+	 */
+	public Future<TrajectoryBuffer[]> plan(Waypoint[] points, double startVelocity) {
+		return worker.submit(() -> generate(points, startVelocity));
+	}
+
+	private TrajectoryBuffer[] generate(Waypoint[] points, double startVelocity) {
+		Trajectory center = Pathfinder.generate(points, config);
+		TankModifier modifier = new TankModifier(center).modify(wheelbaseWidth);
+		return retime(center, modifier.getLeftTrajectory(), modifier.getRightTrajectory(), startVelocity,
+				config.max_velocity, config.max_acceleration, config.dt);
+	}
+
+	/**
+	 * Work out a new velocity profile along the shape of a tank path, see
+	 * {@link PathRetimer#retime}.
+	 *
+	 * @return left and right profiles in Talon units
+	 */
+	static TrajectoryBuffer[] retime(Trajectory center, Trajectory left, Trajectory right, double startVelocity,
+			double maxVelocity, double maxAcceleration, double dt) {
+		Trajectory[] retimed = PathRetimer.retime(center, left, right, startVelocity, maxVelocity, maxAcceleration,
+				dt);
+		Trajectory leftRetimed = retimed[PathRetimer.LEFT];
+		Trajectory rightRetimed = retimed[PathRetimer.RIGHT];
+		return new TrajectoryBuffer[] {TrajectoryBuffer.fromArray(Path.toArray(leftRetimed), leftRetimed),
+				TrajectoryBuffer.fromArray(Path.toArray(rightRetimed), rightRetimed)};
+	}
+}
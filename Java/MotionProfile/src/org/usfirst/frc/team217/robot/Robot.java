@@ -31,6 +31,10 @@ import com.ctre.phoenix.motorcontrol.can.*;
 
 import com.ctre.phoenix.motion.*;
 import com.ctre.phoenix.motorcontrol.*;
+import java.io.File;
+import java.io.IOException;
+
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.IterativeRobot;
 import edu.wpi.first.wpilibj.Joystick;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
@@ -46,10 +50,33 @@ public class Robot extends IterativeRobot {
 	//TalonSRX rightTalonSlave1 = new TalonSRX(9);
 	//TalonSRX rightTalonSlave2 = new TalonSRX(10);
 	
-	public Path midSwitchLeft = new MidSwitchLeft();
+	/** Path the example runs. */
+	static final String kPathName = "MidSwitchLeft";
 
-	/** some example logic on how one can manage an MP */
-	MotionProfileRunner _example = new MotionProfileRunner(leftTalonMaster, rightTalonMaster, midSwitchLeft.getLeftArray(), midSwitchLeft.getRightArray());
+	/**
+	 * Every autonomous path, loaded in parallel as soon as the robot boots.
+	 * Each is mapped from its compiled file if it was deployed and its key
+	 * still matches the path's waypoints and config, see PathCompiler.
+	 */
+	PathLibrary paths = new PathLibrary();
+	{
+		paths.register(kPathName, MidSwitchLeft.key(), MidSwitchLeft::new);
+	}
+
+	/**
+	 * some example logic on how one can manage an MP. Built by loadExample()
+	 * when the robot is first enabled, so booting doesn't wait for the path.
+	 * null until then, and if the path couldn't be run.
+	 */
+	MotionProfileRunner _example;
+	/** So a path that couldn't be loaded is only reported once. */
+	boolean _exampleFailed = false;
+
+	/**
+	 * Set to close the heading loop on the Talons, with the Pigeon as a
+	 * remote sensor, instead of only following each side's position.
+	 */
+	static final boolean kArc = false;
 
 	/** joystick for testing */
 	Joystick _joy = new Joystick(0);
@@ -61,9 +88,73 @@ public class Robot extends IterativeRobot {
 	 */
 	boolean[] _btnsLast = {false, false, false, false, false, false, false, false, false, false};
 
+	/**
+	 * Records both sides every loop, enough for about five minutes of MP
+	 * mode at 20ms. Pull the files off /home/lvuser/mp-logs after a match and
+	 * run RecordingExporter on them.
+	 */
+	static final int kRecordingLength = 2 * 50 * 60 * 5;
+	/** Recordings to keep on the roboRIO, counting the one this boot makes. */
+	static final int kRecordingsKept = 10;
+	MotionProfileRecorder _recorder;
+
+	/** run once when the robot program starts */
+	public void robotInit() {
+		File dir = new File("/home/lvuser/mp-logs");
+		try {
+			dir.mkdirs();
+			/* each one is a couple of MB, don't let them fill the flash */
+			MotionProfileRecorder.deleteOldRecordings(dir, kRecordingsKept - 1);
+			_recorder = new MotionProfileRecorder(
+					new File(dir, "mp-" + System.currentTimeMillis() + MotionProfileRecorder.EXTENSION),
+					kRecordingLength);
+		} catch (IOException e) {
+			DriverStation.reportError("Could not start MP recording: " + e.getMessage(), false);
+		}
+	}
+
+	/**
+	 * Build the runner for the example's path, waiting for the path if it is
+	 * still loading. Does nothing once it has been built, or has failed.
+	 */
+	void loadExample() {
+		if (_example != null || _exampleFailed)
+			return;
+		try {
+			_example = new MotionProfileRunner(leftTalonMaster, rightTalonMaster, paths.get(kPathName));
+		} catch (RuntimeException e) {
+			/* a path that failed to generate or whose sides can't run together */
+			_exampleFailed = true;
+			DriverStation.reportError("Could not load " + kPathName + ": " + e.getMessage(), true);
+			return;
+		}
+		_example.setArc(kArc);
+		_example.setRecorder(_recorder);
+	}
+
+	/** run once each time autonomous starts */
+	public void autonomousInit() {
+		loadExample();
+	}
+
+	/** run once each time operator control starts */
+	public void teleopInit() {
+		loadExample();
+	}
+
 	/** run once after booting/enter-disable */
 	public void disabledInit() {
 
+		/* how long the MPs since the last disable took to get going, and how well the last one was followed */
+		if (_example != null) {
+			_example.printLatencies();
+			System.out.println(_example.getTrackingError(MotionProfileRunner.LEFT));
+			System.out.println(_example.getTrackingError(MotionProfileRunner.RIGHT));
+		}
+		/* get the recording onto the flash in case the robot is switched off next */
+		if (_recorder != null)
+			_recorder.force();
+
 		leftTalonMaster.configSelectedFeedbackSensor(FeedbackDevice.QuadEncoder, 0, 10);
 		leftTalonMaster.setSensorPhase(false); /* keep sensor and motor in phase */
 		leftTalonMaster.configNeutralDeadband(Constants.kNeutralDeadband, Constants.kTimeoutMs);
@@ -107,6 +198,31 @@ public class Robot extends IterativeRobot {
 		
 		//rightTalonSlave1.set(ControlMode.Follower, 8);
 		//rightTalonSlave2.set(ControlMode.Follower, 8);
+
+		if (kArc) {
+			/* the heading loop turns the sides in opposite directions */
+			configArc(leftTalonMaster, false);
+			configArc(rightTalonMaster, true);
+		}
+	}
+
+	/**
+	 * Use the Pigeon's yaw as the Talon's auxiliary (heading) sensor, in
+	 * tenths of a degree, for MotionProfileArc.
+	 * @param talon Talon running one side's profile
+	 * @param invertAux true on the side the heading loop should slow down to turn left
+	 */
+	void configArc(TalonSRX talon, boolean invertAux) {
+		talon.configRemoteFeedbackFilter(Constants.kPigeonID, RemoteSensorSource.Pigeon_Yaw, 0, Constants.kTimeoutMs);
+		talon.configSelectedFeedbackSensor(RemoteFeedbackDevice.RemoteSensor0, Constants.kArcPIDLoopIdx, Constants.kTimeoutMs);
+		talon.configSelectedFeedbackCoefficient(Constants.kTurnUnitsPerRotation / Constants.kPigeonUnitsPerRotation,
+				Constants.kArcPIDLoopIdx, Constants.kTimeoutMs);
+		talon.configAuxPIDPolarity(invertAux, Constants.kTimeoutMs);
+
+		talon.config_kF(Constants.kArcSlotIdx, 0.0, Constants.kTimeoutMs);
+		talon.config_kP(Constants.kArcSlotIdx, 2.0, Constants.kTimeoutMs);
+		talon.config_kI(Constants.kArcSlotIdx, 0.0, Constants.kTimeoutMs);
+		talon.config_kD(Constants.kArcSlotIdx, 4.0, Constants.kTimeoutMs);
 	}
 
 	/** function is called periodically during operator control */
@@ -126,10 +242,14 @@ public class Robot extends IterativeRobot {
 		/*
 		 * call this periodically, and catch the output. Only apply it if user
 		 * wants to run MP. */
-		_example.control();
+		if (_example != null)
+			_example.control();
 
-		/* Check button 5 (top left shoulder on the logitech gamead). */
-		if (btns[5] == false) {
+		/*
+		 * Check button 5 (top left shoulder on the logitech gamead). Without
+		 * a path to run, stay on the joysticks.
+		 */
+		if (btns[5] == false || _example == null) {
 			/* 
 			 * If it's not being pressed, just do a simple drive. This could be
 			 * a RobotDrive class or custom drivetrain logic. The point is we
@@ -142,7 +262,8 @@ public class Robot extends IterativeRobot {
 			rightTalonMaster.set(ControlMode.PercentOutput, rightYjoystick);
 			System.out.println(rightYjoystick);
 
-			_example.reset();
+			if (_example != null)
+				_example.reset();
 		} else {
 			/*
 			 * Button5 is held down so switch to motion profile control mode =>
@@ -152,8 +273,9 @@ public class Robot extends IterativeRobot {
 
 			SetValueMotionProfile setOutput = _example.getSetValue();
 
-			leftTalonMaster.set(ControlMode.MotionProfile, setOutput.value);
-			rightTalonMaster.set(ControlMode.MotionProfile, setOutput.value);
+			ControlMode mpMode = kArc ? ControlMode.MotionProfileArc : ControlMode.MotionProfile;
+			leftTalonMaster.set(mpMode, setOutput.value);
+			rightTalonMaster.set(mpMode, setOutput.value);
 
 			/*
 			 * if btn is pressed and was not pressed last time, In other words
@@ -177,9 +299,25 @@ public class Robot extends IterativeRobot {
 		SmartDashboard.putNumber("Right Speed", rightTalonMaster.getSelectedSensorVelocity(0));
 		SmartDashboard.putNumber("Left Pos", leftTalonMaster.getSelectedSensorPosition(0));
 		SmartDashboard.putNumber("Right Pos", rightTalonMaster.getSelectedSensorPosition(0));
+		if (_example != null) {
+			SmartDashboard.putNumber("Pump Period", _example.getPump().getPeriodMs());
+			SmartDashboard.putNumber("Pump Jitter Max", _example.getPump().getMaxJitterMs());
+			SmartDashboard.putNumber("Underrun Margin", _example.getUnderrunMarginMs());
+			putTrackingError("Left", _example.getTrackingError(MotionProfileRunner.LEFT));
+			putTrackingError("Right", _example.getTrackingError(MotionProfileRunner.RIGHT));
+		}
 		
 	}
 
+	/** Last MP's tracking error for one side, to tune against. */
+	void putTrackingError(String side, TrackingErrorStats stats) {
+		SmartDashboard.putNumber(side + " Pos Err RMS", stats.getPositionRms());
+		SmartDashboard.putNumber(side + " Pos Err p95", stats.getPositionPercentile(95));
+		SmartDashboard.putNumber(side + " Pos Err Max", stats.getPositionMax());
+		SmartDashboard.putNumber(side + " Vel Err RMS", stats.getVelocityRms());
+		SmartDashboard.putNumber(side + " Vel Err Max", stats.getVelocityMax());
+	}
+
 	/** function is called periodically during disable */
 	public void disabledPeriodic() {
 		/*
@@ -197,7 +335,8 @@ public class Robot extends IterativeRobot {
 		SmartDashboard.putNumber("Right Pos", rightTalonMaster.getSelectedSensorPosition(0));
 		
 		/* clear our buffer and put everything into a known state */
-		_example.reset();
+		if (_example != null)
+			_example.reset();
 		
 		
 	}
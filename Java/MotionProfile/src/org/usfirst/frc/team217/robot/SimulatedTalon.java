@@ -0,0 +1,338 @@
+package org.usfirst.frc.team217.robot;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.SetValueMotionProfile;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * A stand-in for a Talon SRX running a motion profile, for running the
+ * streaming code on a computer instead of a robot.
+ *
+ * It models what matters for streaming:
+ * <ul>
+ * <li>the 2048 point top buffer that pushMotionProfileTrajectory() fills,</li>
+ * <li>processMotionProfileBuffer() sending one point per control frame, which
+ * lands in the 128 point bottom buffer after a CAN latency,</li>
+ * <li>the executer walking the bottom buffer by each point's duration, with
+ * the same underrun and isLast flags,</li>
+ * <li>and a first order plant, so the sensor lags the profile like a
+ * drivetrain would.</li>
+ * </ul>
+ *
+ * Nothing happens on its own: time only moves when {@link #advance(int)} is
+ * called, so a simulation gives the same result every run. It is not thread
+ * safe, drive it from one thread.
+ */
+public class SimulatedTalon implements MotionProfileDevice {
+
+	public static final int kTopBufferSize = 2048;
+	public static final int kBtmBufferSize = 128;
+
+	/** Points on their way to the bottom buffer, at most one per frame. */
+	private static final int kInFlightSize = 64;
+
+	/**
+	 * Talon's closed loop as seen by the plant: it asks for the point's
+	 * velocity plus this much per unit of position error, per 100ms.
+	 */
+	private static final double kPositionGain = 0.5;
+	/** Velocity at full PercentOutput, units per 100ms. */
+	private static final double kFreeSpeed = 1000;
+
+	private final int canLatencyMs;
+	private final double plantTimeConstantMs;
+
+	/** Simulated time in ms. */
+	private long nowMs = 0;
+
+	/** Set by set(), like the real thing. */
+	private ControlMode controlMode = ControlMode.PercentOutput;
+	private double setValue = 0;
+
+	private int framePeriodMs = 10;
+	private long lastFrameMs = Long.MIN_VALUE / 2;
+	private int baseTrajPeriodMs = 0;
+
+	/** Buffers are rings of preallocated points. */
+	private final Ring top = new Ring(kTopBufferSize);
+	private final Ring inFlight = new Ring(kInFlightSize);
+	private final long[] arrivalMs = new long[kInFlightSize];
+	private final Ring btm = new Ring(kBtmBufferSize);
+
+	/** The point the executer is on. */
+	private final TrajectoryPoint active = new TrajectoryPoint();
+	private boolean activeValid = false;
+	private long activeEndMs = 0;
+
+	private boolean hasUnderrun = false;
+	private boolean isUnderrun = false;
+
+	/** Plant state, in sensor units and units per 100ms. */
+	private double sensorPos = 0;
+	private double sensorVel = 0;
+
+	/**
+	 * @param canLatencyMs
+	 *            how long a point takes from processMotionProfileBuffer() to
+	 *            the bottom buffer
+	 * @param plantTimeConstantMs
+	 *            time constant of the drivetrain's velocity response
+	 */
+	public SimulatedTalon(int canLatencyMs, double plantTimeConstantMs) {
+		this.canLatencyMs = canLatencyMs;
+		this.plantTimeConstantMs = plantTimeConstantMs;
+	}
+
+	/** A Talon with 2ms of CAN latency and a 50ms plant. */
+	public SimulatedTalon() {
+		this(2, 50);
+	}
+
+	/**
+	 * Like TalonSRX.set().
+	 *
+	 * @param mode
+	 *            control mode
+	 * @param value
+	 *            for MotionProfile, a SetValueMotionProfile value
+	 */
+	public void set(ControlMode mode, double value) {
+		controlMode = mode;
+		setValue = value;
+	}
+
+	/** @return simulated time in ms */
+	public long getTimeMs() {
+		return nowMs;
+	}
+
+	/**
+	 * Move time forward one ms at a time, delivering points, running the
+	 * executer and the plant.
+	 *
+	 * @param ms
+	 *            how long to simulate
+	 */
+	public void advance(int ms) {
+		for (int i = 0; i < ms; ++i) {
+			++nowMs;
+			deliver();
+			execute();
+			plant();
+		}
+	}
+
+	/** Points whose CAN frame has arrived go into the bottom buffer. */
+	private void deliver() {
+		while (inFlight.count > 0 && arrivalMs[inFlight.head] <= nowMs) {
+			if (btm.count == kBtmBufferSize)
+				break;
+			inFlight.pop(btm.push());
+		}
+	}
+
+	private void execute() {
+		if (!isMotionProfile()) {
+			return;
+		}
+		SetValueMotionProfile sv = SetValueMotionProfile.valueOf((int) setValue);
+		if (sv != SetValueMotionProfile.Enable) {
+			/* Disable and Hold don't move through the buffer */
+			return;
+		}
+		if (activeValid && nowMs < activeEndMs) {
+			return;
+		}
+		if (btm.count > 0) {
+			btm.pop(active);
+			activeValid = true;
+			isUnderrun = false;
+			activeEndMs = nowMs + active.timeDur.value + baseTrajPeriodMs;
+			if (active.zeroPos)
+				sensorPos = 0;
+		} else if (activeValid && !active.isLastPoint) {
+			/* ran out of points before the last one */
+			isUnderrun = true;
+			hasUnderrun = true;
+		}
+	}
+
+	private void plant() {
+		double targetVel;
+		if (isMotionProfile()) {
+			SetValueMotionProfile sv = SetValueMotionProfile.valueOf((int) setValue);
+			if (sv == SetValueMotionProfile.Disable || !activeValid || isUnderrun) {
+				targetVel = 0;
+			} else {
+				/* Hold servos to the active point without moving on */
+				double feedForward = (sv == SetValueMotionProfile.Hold) ? 0 : active.velocity;
+				targetVel = feedForward + kPositionGain * (active.position - sensorPos);
+			}
+		} else if (controlMode == ControlMode.PercentOutput) {
+			targetVel = setValue * kFreeSpeed;
+		} else {
+			targetVel = 0;
+		}
+		sensorVel += (targetVel - sensorVel) / plantTimeConstantMs;
+		/* velocity is per 100ms, we step 1ms */
+		sensorPos += sensorVel / 100.0;
+	}
+
+	private boolean isMotionProfile() {
+		return controlMode == ControlMode.MotionProfile || controlMode == ControlMode.MotionProfileArc;
+	}
+
+	@Override
+	public ErrorCode changeMotionControlFramePeriod(int periodMs) {
+		framePeriodMs = Math.max(1, periodMs);
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs) {
+		baseTrajPeriodMs = baseTrajDurationMs;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus statusToFill) {
+		statusToFill.topBufferCnt = top.count;
+		statusToFill.topBufferRem = kTopBufferSize - top.count;
+		statusToFill.btmBufferCnt = btm.count;
+		statusToFill.hasUnderrun = hasUnderrun;
+		statusToFill.isUnderrun = isUnderrun;
+		statusToFill.activePointValid = activeValid;
+		statusToFill.isLast = activeValid && active.isLastPoint;
+		statusToFill.profileSlotSelect = active.profileSlotSelect0;
+		statusToFill.outputEnable = SetValueMotionProfile.valueOf((int) setValue);
+		statusToFill.timeDurMs = activeValid ? active.timeDur.value : 0;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs) {
+		hasUnderrun = false;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint trajPt) {
+		if (top.count == kTopBufferSize) {
+			return ErrorCode.BufferFull;
+		}
+		copy(trajPt, top.push());
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileTrajectories() {
+		top.clear();
+		inFlight.clear();
+		btm.clear();
+		activeValid = false;
+		isUnderrun = false;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public int getMotionProfileTopLevelBufferCount() {
+		return top.count;
+	}
+
+	/** Sends the next point, if a control frame is due and there is room. */
+	@Override
+	public void processMotionProfileBuffer() {
+		if (top.count == 0 || nowMs - lastFrameMs < framePeriodMs) {
+			return;
+		}
+		if (btm.count + inFlight.count >= kBtmBufferSize || inFlight.count == kInFlightSize) {
+			return;
+		}
+		lastFrameMs = nowMs;
+		arrivalMs[inFlight.tail()] = nowMs + canLatencyMs;
+		top.pop(inFlight.push());
+	}
+
+	@Override
+	public ControlMode getControlMode() {
+		return controlMode;
+	}
+
+	@Override
+	public int getActiveTrajectoryPosition() {
+		return activeValid ? (int) active.position : 0;
+	}
+
+	@Override
+	public int getActiveTrajectoryVelocity() {
+		return activeValid ? (int) active.velocity : 0;
+	}
+
+	@Override
+	public double getActiveTrajectoryHeading() {
+		return activeValid ? active.headingDeg : 0;
+	}
+
+	/** Only the primary loop has a sensor, there is no Pigeon to simulate. */
+	@Override
+	public int getSelectedSensorPosition(int pidIdx) {
+		return (pidIdx == 0) ? (int) sensorPos : 0;
+	}
+
+	@Override
+	public int getSelectedSensorVelocity(int pidIdx) {
+		return (pidIdx == 0) ? (int) sensorVel : 0;
+	}
+
+	private static void copy(TrajectoryPoint from, TrajectoryPoint to) {
+		to.position = from.position;
+		to.velocity = from.velocity;
+		to.headingDeg = from.headingDeg;
+		to.auxiliaryPos = from.auxiliaryPos;
+		to.profileSlotSelect0 = from.profileSlotSelect0;
+		to.profileSlotSelect1 = from.profileSlotSelect1;
+		to.isLastPoint = from.isLastPoint;
+		to.zeroPos = from.zeroPos;
+		to.timeDur = from.timeDur;
+	}
+
+	/** Fixed size FIFO of points that are copied in and out, never allocated. */
+	private static class Ring {
+		final TrajectoryPoint[] points;
+		int head = 0;
+		int count = 0;
+
+		Ring(int size) {
+			points = new TrajectoryPoint[size];
+			for (int i = 0; i < size; ++i) {
+				points[i] = new TrajectoryPoint();
+			}
+		}
+
+		/** @return index the next push will use */
+		int tail() {
+			return (head + count) % points.length;
+		}
+
+		/** @return the slot to fill for a new point at the back */
+		TrajectoryPoint push() {
+			TrajectoryPoint slot = points[tail()];
+			++count;
+			return slot;
+		}
+
+		/** Copy the front point out and remove it. */
+		void pop(TrajectoryPoint into) {
+			copy(points[head], into);
+			head = (head + 1) % points.length;
+			--count;
+		}
+
+		void clear() {
+			head = 0;
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.wpilibj.Notifier;
+
+/**
+ * Reads everything MotionProfileRunner needs from its Talons on a Notifier of
+ * its own, so control() doesn't make any CAN calls for it on the robot thread,
+ * and every Talon in a snapshot was read in the same pass.
+ *
+ * Snapshots are triple buffered: the poller fills one, the reader holds one,
+ * and the newest finished one waits in between. Publishing and picking up are
+ * a single atomic swap each, so neither side ever waits for the other, and the
+ * reader never sees a snapshot half written. No snapshots are allocated after
+ * the constructor.
+ *
+ * There must only be one writer: either the Notifier, or whoever calls
+ * {@link #poll()} when there is no Notifier. And one reader, calling
+ * {@link #read()}.
+ */
+public class StatusPoller {
+
+	/** How often the Notifier polls. */
+	public static final int kPeriodMs = 5;
+
+	/** Everything read from the Talons in one pass. */
+	public static class Snapshot {
+		/**
+		 * Which pass this was, counting from 1. 0 until the first poll.
+		 * Volatile since read() checks it on a snapshot the poller may have
+		 * just taken back to refill.
+		 */
+		volatile long seq = 0;
+		/** When the pass started, on the poller's clock. */
+		long timeNs = 0;
+
+		public final MotionProfileStatus[] statuses;
+		public final ControlMode[] modes;
+		public final double[] activePos, activeVel, activeHeading;
+		public final int[] sensorPos, sensorVel;
+		/** Auxiliary sensor position, only read when {@link StatusPoller#setAux} is on. */
+		public final int[] auxPos;
+
+		Snapshot(int n) {
+			statuses = new MotionProfileStatus[n];
+			for (int d = 0; d < n; ++d) {
+				statuses[d] = new MotionProfileStatus();
+			}
+			modes = new ControlMode[n];
+			activePos = new double[n];
+			activeVel = new double[n];
+			activeHeading = new double[n];
+			sensorPos = new int[n];
+			sensorVel = new int[n];
+			auxPos = new int[n];
+		}
+
+		/** @return which pass this was, 0 if nothing has been polled yet */
+		public long getSeq() {
+			return seq;
+		}
+
+		/** @return when the pass started, in ns */
+		public long getTimeNs() {
+			return timeNs;
+		}
+	}
+
+	private final MotionProfileDevice[] talons;
+	private final LongSupplier clock;
+	/** null when the owner calls poll() itself. */
+	private final Notifier notifier;
+
+	/** Only touched by the writer. */
+	private Snapshot back;
+	/** The newest finished snapshot, or one the reader handed back. */
+	private final AtomicReference<Snapshot> middle;
+	/** Only touched by the reader. */
+	private Snapshot front;
+	private long seq = 0;
+
+	private volatile boolean aux = false;
+
+	/**
+	 * @param talons
+	 *            devices to poll
+	 * @param clock
+	 *            what to timestamp snapshots with
+	 * @param useNotifier
+	 *            false to not create a Notifier, for running off the robot. The
+	 *            owner then calls {@link #poll()} itself before each
+	 *            {@link #read()}.
+	 */
+	public StatusPoller(MotionProfileDevice[] talons, LongSupplier clock, boolean useNotifier) {
+		this.talons = talons;
+		this.clock = clock;
+		back = new Snapshot(talons.length);
+		middle = new AtomicReference<Snapshot>(new Snapshot(talons.length));
+		front = new Snapshot(talons.length);
+		notifier = useNotifier ? new Notifier(this::poll) : null;
+	}
+
+	/** Start polling every {@value #kPeriodMs}ms, if there is a Notifier. */
+	public void start() {
+		if (notifier != null)
+			notifier.startPeriodic(kPeriodMs / 1000.0);
+	}
+
+	/** @return true if the Notifier polls, false if the owner has to */
+	public boolean isBackground() {
+		return notifier != null;
+	}
+
+	/**
+	 * @param aux
+	 *            true to also read each Talon's auxiliary sensor
+	 */
+	public void setAux(boolean aux) {
+		this.aux = aux;
+	}
+
+	/** Read every Talon into a snapshot and publish it. Writer only. */
+	public void poll() {
+		Snapshot s = back;
+		s.timeNs = clock.getAsLong();
+		boolean readAux = aux;
+		for (int d = 0; d < talons.length; ++d) {
+			MotionProfileDevice talon = talons[d];
+			talon.getMotionProfileStatus(s.statuses[d]);
+			s.modes[d] = talon.getControlMode();
+			s.activePos[d] = talon.getActiveTrajectoryPosition();
+			s.activeVel[d] = talon.getActiveTrajectoryVelocity();
+			s.activeHeading[d] = talon.getActiveTrajectoryHeading();
+			s.sensorPos[d] = talon.getSelectedSensorPosition(0);
+			s.sensorVel[d] = talon.getSelectedSensorVelocity(0);
+			s.auxPos[d] = readAux ? talon.getSelectedSensorPosition(Constants.kArcPIDLoopIdx) : 0;
+		}
+		s.seq = ++seq;
+		/* publish it, and take back whichever one was waiting to fill next */
+		back = middle.getAndSet(s);
+	}
+
+	/**
+	 * Pick up the newest snapshot. Reader only. The snapshot stays the
+	 * reader's, and unchanged, until the next read().
+	 *
+	 * @return newest snapshot, with seq 0 if nothing has been polled yet
+	 */
+	public Snapshot read() {
+		/*
+		 * only swap if there is something newer, otherwise we'd hand back the
+		 * one we have and get an older one
+		 */
+		if (middle.get().seq > front.seq) {
+			front = middle.getAndSet(front);
+		}
+		return front;
+	}
+}
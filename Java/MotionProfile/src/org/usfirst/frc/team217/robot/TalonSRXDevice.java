@@ -0,0 +1,107 @@
+package org.usfirst.frc.team217.robot;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+/**
+ * A real Talon SRX as a {@link MotionProfileDevice}.
+ */
+public class TalonSRXDevice implements MotionProfileDevice {
+
+	private final TalonSRX talon;
+
+	public TalonSRXDevice(TalonSRX talon) {
+		this.talon = talon;
+	}
+
+	/** @return the Talon being wrapped */
+	public TalonSRX getTalon() {
+		return talon;
+	}
+
+	/**
+	 * @param talons
+	 *            Talons to wrap
+	 * @return a device for each, in the same order
+	 */
+	public static MotionProfileDevice[] wrap(TalonSRX... talons) {
+		MotionProfileDevice[] devices = new MotionProfileDevice[talons.length];
+		for (int d = 0; d < talons.length; ++d) {
+			devices[d] = new TalonSRXDevice(talons[d]);
+		}
+		return devices;
+	}
+
+	@Override
+	public ErrorCode changeMotionControlFramePeriod(int periodMs) {
+		return talon.changeMotionControlFramePeriod(periodMs);
+	}
+
+	@Override
+	public ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs) {
+		return talon.configMotionProfileTrajectoryPeriod(baseTrajDurationMs, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus statusToFill) {
+		return talon.getMotionProfileStatus(statusToFill);
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs) {
+		return talon.clearMotionProfileHasUnderrun(timeoutMs);
+	}
+
+	@Override
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint trajPt) {
+		return talon.pushMotionProfileTrajectory(trajPt);
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileTrajectories() {
+		return talon.clearMotionProfileTrajectories();
+	}
+
+	@Override
+	public int getMotionProfileTopLevelBufferCount() {
+		return talon.getMotionProfileTopLevelBufferCount();
+	}
+
+	@Override
+	public void processMotionProfileBuffer() {
+		talon.processMotionProfileBuffer();
+	}
+
+	@Override
+	public ControlMode getControlMode() {
+		return talon.getControlMode();
+	}
+
+	@Override
+	public int getActiveTrajectoryPosition() {
+		return talon.getActiveTrajectoryPosition();
+	}
+
+	@Override
+	public int getActiveTrajectoryVelocity() {
+		return talon.getActiveTrajectoryVelocity();
+	}
+
+	@Override
+	public double getActiveTrajectoryHeading() {
+		return talon.getActiveTrajectoryHeading();
+	}
+
+	@Override
+	public int getSelectedSensorPosition(int pidIdx) {
+		return talon.getSelectedSensorPosition(pidIdx);
+	}
+
+	@Override
+	public int getSelectedSensorVelocity(int pidIdx) {
+		return talon.getSelectedSensorVelocity(pidIdx);
+	}
+}
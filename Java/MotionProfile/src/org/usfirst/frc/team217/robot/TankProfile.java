@@ -0,0 +1,83 @@
+package org.usfirst.frc.team217.robot;
+
+/**
+ * Turns a Path into the left and right profiles MotionProfileRunner streams,
+ * checking on the way that they can run together.
+ *
+ * Each side comes from its own TankModifier trajectory, through
+ * {@link Path#getLeftBuffer()} and {@link Path#getRightBuffer()}, so on a turn
+ * the outside wheel covers more distance than the inside one. Before they get
+ * anywhere near the Talons, the sides are checked:
+ * <ul>
+ * <li>they have the same number of points,</li>
+ * <li>each point lasts the same time on both sides, and a time the Talon
+ * supports, so the sides stay in step,</li>
+ * <li>they aren't the same profile on a path that turns, which is what you
+ * get from building both from the center trajectory.</li>
+ * </ul>
+ * Then they are decimated together, see TrajectoryDecimator.
+ */
+public class TankProfile {
+
+	/** Degrees of heading change that count as a turn. */
+	private static final double kTurnDeg = 1;
+
+	private TankProfile() {
+	}
+
+	/**
+	 * @param path
+	 *            path to run
+	 * @return profiles indexed by {@link MotionProfileRunner#LEFT} and
+	 *         {@link MotionProfileRunner#RIGHT}, in Talon units
+	 * @throws IllegalArgumentException
+	 *             if the sides can't run together
+	 */
+	public static TrajectoryBuffer[] fromPath(Path path) {
+		TrajectoryBuffer[] sides = new TrajectoryBuffer[2];
+		sides[MotionProfileRunner.LEFT] = path.getLeftBuffer();
+		sides[MotionProfileRunner.RIGHT] = path.getRightBuffer();
+		validate(sides[MotionProfileRunner.LEFT], sides[MotionProfileRunner.RIGHT]);
+		return TrajectoryDecimator.decimate(sides);
+	}
+
+	/**
+	 * Check a left and right profile can run together.
+	 *
+	 * @param left
+	 *            left side in Talon units
+	 * @param right
+	 *            right side in Talon units
+	 * @throws IllegalArgumentException
+	 *             saying what is wrong, if they can't
+	 */
+	public static void validate(TrajectoryBuffer left, TrajectoryBuffer right) {
+		int n = left.length();
+		if (n == 0) {
+			throw new IllegalArgumentException("Profile has no points");
+		}
+		if (right.length() != n) {
+			throw new IllegalArgumentException("Left side has " + n + " points, right side has " + right.length());
+		}
+		boolean same = true;
+		double minHeading = left.heading[0];
+		double maxHeading = left.heading[0];
+		for (int i = 0; i < n; ++i) {
+			if (left.durationMs[i] != right.durationMs[i]) {
+				throw new IllegalArgumentException("Point " + i + " lasts " + left.durationMs[i] + "ms on the left and "
+						+ right.durationMs[i] + "ms on the right");
+			}
+			if (!TrajectoryDecimator.isSupported(left.durationMs[i])) {
+				throw new IllegalArgumentException(
+						"Point " + i + " lasts " + left.durationMs[i] + "ms, which the Talon doesn't support");
+			}
+			same &= left.position[i] == right.position[i] && left.velocity[i] == right.velocity[i];
+			minHeading = Math.min(minHeading, left.heading[i]);
+			maxHeading = Math.max(maxHeading, left.heading[i]);
+		}
+		if (same && maxHeading - minHeading > kTurnDeg) {
+			throw new IllegalArgumentException(
+					"Both sides are the same on a path that turns, were they built from the center trajectory?");
+		}
+	}
+}
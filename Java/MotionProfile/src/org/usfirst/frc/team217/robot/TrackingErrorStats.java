@@ -0,0 +1,166 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.Arrays;
+
+/**
+ * How closely one Talon followed its profile: the error between the active
+ * trajectory point and the sensor, in position and velocity, every loop of an
+ * MP. Keeps the RMS, max and a histogram for percentiles, all in fixed arrays
+ * so recording never allocates.
+ *
+ * Recording goes into the current run. When the MP finishes, finish() copies
+ * it over the last run's summary, which is what the getters return, so the
+ * numbers stay put between MPs for tuning against.
+ *
+ * The histogram uses the same log-linear buckets as LatencyHistogram, so
+ * percentiles are within 25% (in sensor units and sensor units per 100ms).
+ */
+public class TrackingErrorStats {
+
+	private final String name;
+
+	private final Channel position = new Channel();
+	private final Channel velocity = new Channel();
+	private final Channel lastPosition = new Channel();
+	private final Channel lastVelocity = new Channel();
+	private int runs = 0;
+
+	/**
+	 * @param name
+	 *            which Talon, for printing
+	 */
+	public TrackingErrorStats(String name) {
+		this.name = name;
+	}
+
+	/** Start a new run, forgetting the current one but not the last. */
+	public void start() {
+		position.reset();
+		velocity.reset();
+	}
+
+	/**
+	 * @param targPos
+	 *            active trajectory position
+	 * @param targVel
+	 *            active trajectory velocity
+	 * @param sensorPos
+	 *            selected sensor position
+	 * @param sensorVel
+	 *            selected sensor velocity
+	 */
+	public void record(double targPos, double targVel, int sensorPos, int sensorVel) {
+		position.record(targPos - sensorPos);
+		velocity.record(targVel - sensorVel);
+	}
+
+	/** The run is over, make it the one the getters report. */
+	public void finish() {
+		lastPosition.copyFrom(position);
+		lastVelocity.copyFrom(velocity);
+		++runs;
+	}
+
+	/** @return how many runs have finished */
+	public int getRuns() {
+		return runs;
+	}
+
+	/** @return loops recorded in the last run */
+	public long getCount() {
+		return lastPosition.count;
+	}
+
+	public double getPositionRms() {
+		return lastPosition.getRms();
+	}
+
+	public double getPositionMax() {
+		return lastPosition.maxAbs;
+	}
+
+	/**
+	 * @param percentile
+	 *            in [0,100]
+	 * @return absolute position error that many percent of the last run's
+	 *         loops were at or under
+	 */
+	public double getPositionPercentile(double percentile) {
+		return lastPosition.getPercentile(percentile);
+	}
+
+	public double getVelocityRms() {
+		return lastVelocity.getRms();
+	}
+
+	public double getVelocityMax() {
+		return lastVelocity.maxAbs;
+	}
+
+	/**
+	 * @param percentile
+	 *            in [0,100]
+	 * @return absolute velocity error that many percent of the last run's
+	 *         loops were at or under
+	 */
+	public double getVelocityPercentile(double percentile) {
+		return lastVelocity.getPercentile(percentile);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-8s n=%-5d pos rms=%.0f p95=%.0f max=%.0f  vel rms=%.0f p95=%.0f max=%.0f", name,
+				getCount(), getPositionRms(), getPositionPercentile(95), getPositionMax(), getVelocityRms(),
+				getVelocityPercentile(95), getVelocityMax());
+	}
+
+	/** One error, position or velocity. */
+	private static class Channel {
+		/** Four buckets per power of two up to 2^31, like LatencyHistogram. */
+		private static final int kBuckets = 4 * 31;
+
+		final long[] counts = new long[kBuckets];
+		long count = 0;
+		double sumSq = 0;
+		double maxAbs = 0;
+
+		void record(double error) {
+			double abs = Math.abs(error);
+			++counts[LatencyHistogram.bucket((long) abs)];
+			++count;
+			sumSq += error * error;
+			maxAbs = Math.max(maxAbs, abs);
+		}
+
+		void reset() {
+			Arrays.fill(counts, 0);
+			count = 0;
+			sumSq = 0;
+			maxAbs = 0;
+		}
+
+		void copyFrom(Channel other) {
+			System.arraycopy(other.counts, 0, counts, 0, kBuckets);
+			count = other.count;
+			sumSq = other.sumSq;
+			maxAbs = other.maxAbs;
+		}
+
+		double getRms() {
+			return (count == 0) ? 0 : Math.sqrt(sumSq / count);
+		}
+
+		double getPercentile(double percentile) {
+			if (count == 0)
+				return 0;
+			long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+			long seen = 0;
+			for (int b = 0; b < kBuckets; ++b) {
+				seen += counts[b];
+				if (seen >= target)
+					return Math.min(maxAbs, LatencyHistogram.lowerBound(b + 1) - 1);
+			}
+			return maxAbs;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.usfirst.frc.team217.robot;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+
+/**
+ * One side of a motion profile, already in Talon units, stored as one
+ * primitive array per column instead of one array per point.
+ *
+ * Paths are converted into these once when they are loaded (see
+ * {@link Path#getLeftBuffer()}), and MotionProfileRunner pushes straight out
+ * of the columns without converting anything.
+ *
+ * A buffer has a fixed capacity and a length, so the same one can be refilled
+ * with a new profile without allocating.
+ */
+public class TrajectoryBuffer {
+
+	/** Position of each point, in sensor units. */
+	public final double[] position;
+	/** Velocity of each point, in sensor units per 100ms. */
+	public final double[] velocity;
+	/** How long each point lasts, in ms. */
+	public final int[] durationMs;
+	/** Heading of each point, in degrees. */
+	public final double[] heading;
+	/**
+	 * Where each point is on the field, in feet: the wheel's position for a
+	 * side of a tank path. Zero for profiles that aren't from a path.
+	 */
+	public final double[] x, y;
+
+	/** How many of the points are part of the profile. */
+	private int length = 0;
+
+	/**
+	 * @param capacity
+	 *            most points this buffer can hold
+	 */
+	public TrajectoryBuffer(int capacity) {
+		position = new double[capacity];
+		velocity = new double[capacity];
+		durationMs = new int[capacity];
+		heading = new double[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+	}
+
+	/** @return number of points in the profile */
+	public int length() {
+		return length;
+	}
+
+	/** @return most points this buffer can hold */
+	public int capacity() {
+		return position.length;
+	}
+
+	/** Empty the buffer so it can be refilled. */
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Set how many points are valid, after filling the columns directly.
+	 *
+	 * @param length
+	 *            number of points, at most {@link #capacity()}
+	 */
+	public void setLength(int length) {
+		if (length < 0 || length > capacity()) {
+			throw new IllegalArgumentException("length " + length + " outside [0," + capacity() + "]");
+		}
+		this.length = length;
+	}
+
+	/**
+	 * Append a point.
+	 *
+	 * @param pos
+	 *            position in sensor units
+	 * @param vel
+	 *            velocity in sensor units per 100ms
+	 * @param durMs
+	 *            duration in ms
+	 * @param headingDeg
+	 *            heading in degrees
+	 */
+	public void add(double pos, double vel, int durMs, double headingDeg) {
+		add(pos, vel, durMs, headingDeg, 0, 0);
+	}
+
+	/**
+	 * Append a point that is somewhere on the field.
+	 *
+	 * @param pos
+	 *            position in sensor units
+	 * @param vel
+	 *            velocity in sensor units per 100ms
+	 * @param durMs
+	 *            duration in ms
+	 * @param headingDeg
+	 *            heading in degrees
+	 * @param xFt
+	 *            x on the field in feet
+	 * @param yFt
+	 *            y on the field in feet
+	 */
+	public void add(double pos, double vel, int durMs, double headingDeg, double xFt, double yFt) {
+		if (length == capacity()) {
+			throw new IllegalStateException("TrajectoryBuffer is full (" + capacity() + " points)");
+		}
+		position[length] = pos;
+		velocity[length] = vel;
+		durationMs[length] = durMs;
+		heading[length] = headingDeg;
+		x[length] = xFt;
+		y[length] = yFt;
+		++length;
+	}
+
+	/**
+	 * Convert one side of a Path.
+	 *
+	 * @param array
+	 *            rows of {position (ft), velocity (ft/sec), dt (sec)}
+	 * @param trajectory
+	 *            segments to take the heading, x and y from, or null if there
+	 *            are none (or they don't line up with the array), in which case
+	 *            they are left at zero
+	 * @return a new buffer holding exactly the converted points
+	 */
+	public static TrajectoryBuffer fromArray(double[][] array, Trajectory trajectory) {
+		TrajectoryBuffer buffer = new TrajectoryBuffer(array.length);
+		boolean hasSegments = trajectory != null && trajectory.length() == array.length;
+		for (int i = 0; i < array.length; ++i) {
+			Trajectory.Segment segment = hasSegments ? trajectory.get(i) : null;
+			buffer.add(MotionProfileRunner.ft2Units(array[i][0]),
+					MotionProfileRunner.fps2UnitsPerRev(array[i][1]),
+					(int) Math.round(array[i][2] * 1000),
+					hasSegments ? Pathfinder.r2d(segment.heading) : 0,
+					hasSegments ? segment.x : 0,
+					hasSegments ? segment.y : 0);
+		}
+		return buffer;
+	}
+}
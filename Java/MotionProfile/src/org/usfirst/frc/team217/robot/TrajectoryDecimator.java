@@ -0,0 +1,139 @@
+package org.usfirst.frc.team217.robot;
+
+/**
+ * Merges runs of points that are nearly a straight line into single, longer
+ * points, so a profile takes fewer top buffer slots and CAN frames.
+ *
+ * Pathfinder gives a point every dt (10ms for our paths) even on long
+ * straight sections where position climbs linearly and velocity is flat. A
+ * point can last up to 100ms, so a run of points can be replaced by its first
+ * point with the run's total duration, as long as every point dropped from the
+ * run is within tolerance of the straight line between the points that are
+ * kept. The total has to be one of the durations TrajectoryDuration supports
+ * (5, 10, 20, 30, 40, 50 or 100ms).
+ *
+ * The sides of a drivetrain are decimated together: a run is only merged if
+ * it is within tolerance on every side, so the sides keep the same points at
+ * the same times and stay in step with each other.
+ */
+public class TrajectoryDecimator {
+
+	/** Durations a merged point can have, longest first. */
+	private static final int[] kDurationsMs = {100, 50, 40, 30, 20, 10, 5};
+	/** Longest point the Talon supports. */
+	public static final int kMaxDurationMs = 100;
+
+	/** Default position tolerance, in sensor units (about 0.1 in). */
+	public static final double kPositionTolerance = 40;
+	/** Default velocity tolerance, in sensor units per 100ms (about 0.1 ft/sec). */
+	public static final double kVelocityTolerance = 15;
+
+	private TrajectoryDecimator() {
+	}
+
+	/**
+	 * Decimate with the default tolerances into new buffers.
+	 *
+	 * @param sides
+	 *            one profile per side, all the same length and timing
+	 * @return decimated profile for each side
+	 */
+	public static TrajectoryBuffer[] decimate(TrajectoryBuffer... sides) {
+		TrajectoryBuffer[] out = new TrajectoryBuffer[sides.length];
+		for (int s = 0; s < sides.length; ++s) {
+			out[s] = new TrajectoryBuffer(sides[s].length());
+		}
+		decimate(sides, out, kPositionTolerance, kVelocityTolerance);
+		return out;
+	}
+
+	/**
+	 * Decimate every side together. The first and last points are always kept.
+	 *
+	 * @param in
+	 *            one profile per side, all the same length and timing
+	 * @param out
+	 *            buffer for each side, cleared and refilled. Each needs the
+	 *            capacity of the input in the worst case, where nothing merges.
+	 * @param posTolerance
+	 *            most a dropped point's position may be off the line between
+	 *            the kept points, in sensor units
+	 * @param velTolerance
+	 *            same for velocity, in sensor units per 100ms
+	 * @return number of points in each output
+	 */
+	public static int decimate(TrajectoryBuffer[] in, TrajectoryBuffer[] out, double posTolerance,
+			double velTolerance) {
+		int n = in[0].length();
+		for (int s = 0; s < in.length; ++s) {
+			if (in[s].length() != n) {
+				throw new IllegalArgumentException("side " + s + " has " + in[s].length() + " points, side 0 has " + n);
+			}
+			if (out[s].capacity() < n) {
+				throw new IllegalArgumentException("output " + s + " can only hold " + out[s].capacity() + " of " + n + " points");
+			}
+			out[s].clear();
+		}
+
+		int i = 0;
+		while (i < n) {
+			int next = i + 1;
+			int durationMs = in[0].durationMs[i];
+			/*
+			 * Try to extend the run to end just before point j. The last point
+			 * is never swallowed, so its isLastPoint stays where it belongs.
+			 */
+			int sumMs = durationMs;
+			for (int j = i + 2; j < n; ++j) {
+				sumMs += in[0].durationMs[j - 1];
+				if (sumMs > kMaxDurationMs || !withinTolerance(in, i, j, posTolerance, velTolerance))
+					break;
+				if (isSupported(sumMs)) {
+					next = j;
+					durationMs = sumMs;
+				}
+			}
+			for (int s = 0; s < in.length; ++s) {
+				TrajectoryBuffer side = in[s];
+				out[s].add(side.position[i], side.velocity[i], durationMs, side.heading[i], side.x[i], side.y[i]);
+			}
+			i = next;
+		}
+		return out[0].length();
+	}
+
+	/**
+	 * @return true if every point strictly between i and j is within tolerance
+	 *         of the line from i to j, on every side
+	 */
+	private static boolean withinTolerance(TrajectoryBuffer[] in, int i, int j, double posTolerance,
+			double velTolerance) {
+		/* points between i and j are at these times, measured from point i */
+		double spanMs = 0;
+		for (int k = i; k < j; ++k) {
+			spanMs += in[0].durationMs[k];
+		}
+		if (spanMs <= 0)
+			return false;
+		for (TrajectoryBuffer side : in) {
+			double tMs = 0;
+			for (int k = i + 1; k < j; ++k) {
+				tMs += side.durationMs[k - 1];
+				double f = tMs / spanMs;
+				double pos = side.position[i] + f * (side.position[j] - side.position[i]);
+				double vel = side.velocity[i] + f * (side.velocity[j] - side.velocity[i]);
+				if (Math.abs(side.position[k] - pos) > posTolerance || Math.abs(side.velocity[k] - vel) > velTolerance)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean isSupported(int durationMs) {
+		for (int d : kDurationsMs) {
+			if (d == durationMs)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,124 @@
+package org.usfirst.frc.team217.robot;
+
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motion.TrajectoryPoint.TrajectoryDuration;
+
+/**
+ * A profile encoded into TrajectoryPoints that are ready to push, so streaming
+ * is a straight copy out of the pool: every duration is looked up, and every
+ * slot filled in, once when the profile is encoded instead of on every push.
+ *
+ * The points are reused. Encoding another profile overwrites them, growing the
+ * pool only if the new profile is longer than any before it. Pushing relies
+ * on the device copying each point (TalonSRX and SimulatedTalon both do), so
+ * the pool can set the isLastPoint and zeroPos flags for a push and clear
+ * them again after.
+ */
+public class TrajectoryPointPool {
+
+	private TrajectoryPoint[] points = new TrajectoryPoint[0];
+	private int length = 0;
+
+	/**
+	 * @param capacity
+	 *            points to allocate up front
+	 */
+	public TrajectoryPointPool(int capacity) {
+		grow(capacity);
+	}
+
+	/**
+	 * Encode a profile into the pool. Always encodes, even a profile encoded
+	 * before, since the buffer may have been refilled in place since (see
+	 * ProfileGenerator.toBuffer()).
+	 *
+	 * @param profile
+	 *            profile in Talon units
+	 */
+	public void encode(TrajectoryBuffer profile) {
+		int n = profile.length();
+		grow(n);
+		for (int i = 0; i < n; ++i) {
+			TrajectoryPoint point = points[i];
+			point.position = profile.position[i];
+			point.velocity = profile.velocity[i];
+			point.timeDur = MotionProfileRunner.GetTrajectoryDuration(profile.durationMs[i]);
+			point.headingDeg = 0;
+			point.auxiliaryPos = 0;
+			point.profileSlotSelect0 = Constants.kSlotIdx;
+			point.profileSlotSelect1 = 0;
+			point.zeroPos = false;
+			point.isLastPoint = false;
+		}
+		length = n;
+	}
+
+	/** Forget what was encoded. */
+	public void clear() {
+		length = 0;
+	}
+
+	/** @return number of points encoded */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @param i
+	 *            index into the profile
+	 * @return encoded point, to be copied and not changed
+	 */
+	public TrajectoryPoint get(int i) {
+		return points[i];
+	}
+
+	/**
+	 * @param i
+	 *            index into the profile
+	 * @return its duration, already looked up
+	 */
+	public TrajectoryDuration getDuration(int i) {
+		return points[i].timeDur;
+	}
+
+	/**
+	 * Push a run of points as they were encoded.
+	 *
+	 * @param device
+	 *            device to push to
+	 * @param from
+	 *            first index to push
+	 * @param to
+	 *            one past the last index to push
+	 * @param zeroFirst
+	 *            set zeroPos on point 0, if it is in the run
+	 * @param lastIsLast
+	 *            set isLastPoint on the profile's last point, if it is in the run
+	 */
+	public void push(MotionProfileDevice device, int from, int to, boolean zeroFirst, boolean lastIsLast) {
+		if (from >= to) {
+			return;
+		}
+		TrajectoryPoint first = points[from];
+		TrajectoryPoint last = points[length - 1];
+		first.zeroPos = zeroFirst && from == 0;
+		last.isLastPoint = lastIsLast && to == length;
+		for (int i = from; i < to; ++i) {
+			device.pushMotionProfileTrajectory(points[i]);
+		}
+		first.zeroPos = false;
+		last.isLastPoint = false;
+	}
+
+	private void grow(int capacity) {
+		if (capacity <= points.length) {
+			return;
+		}
+		TrajectoryPoint[] grown = new TrajectoryPoint[capacity];
+		System.arraycopy(points, 0, grown, 0, points.length);
+		for (int i = points.length; i < capacity; ++i) {
+			grown[i] = new TrajectoryPoint();
+		}
+		points = grown;
+	}
+}
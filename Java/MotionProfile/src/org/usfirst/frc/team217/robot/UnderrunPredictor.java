@@ -0,0 +1,140 @@
+package org.usfirst.frc.team217.robot;
+
+/**
+ * Watches how fast points reach the Talon's bottom buffer and how fast the
+ * executer uses them up, to see an underrun coming instead of finding out
+ * from hasUnderrun afterwards.
+ *
+ * The refill rate is measured from the bottom buffer count every loop while
+ * there are points waiting in the top buffer, adding back what the executer
+ * took out in the meantime. It is smoothed across loops and kept from one MP
+ * to the next, since it mostly depends on the pump and how busy the bus is.
+ * The drain rate is just one point per point duration.
+ *
+ * From those it works out how many points to prefill before enabling: enough
+ * to ride out {@value #kCoverMs}ms without any new points if the stream keeps
+ * up, plus whatever the executer will eat into the buffer over the whole MP
+ * if it doesn't. So short points on a busy bus wait for more, and long points
+ * start sooner.
+ */
+public class UnderrunPredictor {
+
+	/** Points the Talon's bottom buffer holds. */
+	public static final int kBtmBufferSize = 128;
+	/**
+	 * How long the prefill should cover with nothing arriving, about two
+	 * robot loops.
+	 */
+	public static final int kCoverMs = 40;
+	/** Weight of each new refill measurement. */
+	private static final double kSmoothing = 0.2;
+
+	/** Points per ms reaching the bottom buffer, negative until measured. */
+	private double refillPerMs = -1;
+
+	/** Last sample, to measure from. */
+	private boolean haveSample = false;
+	private long lastNs = 0;
+	private int lastBtmCnt = 0;
+
+	/** Slack from the last update(), in ms. */
+	private double marginMs = Double.POSITIVE_INFINITY;
+
+	/** Forget the last sample, for when the buffers get cleared. */
+	public void restart() {
+		haveSample = false;
+		marginMs = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Take a sample. Call once a loop.
+	 *
+	 * @param nowNs
+	 *            System.nanoTime()
+	 * @param btmCnt
+	 *            points in the bottom buffer (the emptiest Talon's)
+	 * @param topCnt
+	 *            points waiting in the top buffer (the emptiest Talon's)
+	 * @param remaining
+	 *            points of the MP not in the bottom buffer yet, including
+	 *            those not pushed to the Talon yet (the most of any Talon)
+	 * @param executing
+	 *            true if the executer is moving through the points
+	 * @param durationMs
+	 *            duration of the points, the shortest if they differ
+	 */
+	public void update(long nowNs, int btmCnt, int topCnt, int remaining, boolean executing, int durationMs) {
+		double drainPerMs = (executing && durationMs > 0) ? 1.0 / durationMs : 0;
+		if (haveSample && topCnt > 0 && btmCnt < kBtmBufferSize - 1) {
+			/*
+			 * only measure while the refill could run flat out: points waiting
+			 * and room for them
+			 */
+			double dtMs = (nowNs - lastNs) / 1e6;
+			if (dtMs > 0) {
+				double rate = Math.max(0, (btmCnt - lastBtmCnt) / dtMs + drainPerMs);
+				refillPerMs = (refillPerMs < 0) ? rate : refillPerMs + kSmoothing * (rate - refillPerMs);
+			}
+		}
+		haveSample = true;
+		lastNs = nowNs;
+		lastBtmCnt = btmCnt;
+
+		if (!executing || durationMs <= 0) {
+			marginMs = Double.POSITIVE_INFINITY;
+		} else if (refillPerMs < 0 || refillPerMs >= drainPerMs || remaining == 0) {
+			/* keeping up, so the slack is how long a stall it could ride out */
+			marginMs = btmCnt * (double) durationMs;
+		} else {
+			/* runs dry after this long, but needs this long to get the rest */
+			marginMs = btmCnt / (drainPerMs - refillPerMs) - remaining / refillPerMs;
+		}
+	}
+
+	/**
+	 * @param durationMs
+	 *            duration of the points, the shortest if they differ
+	 * @param points
+	 *            points in the MP
+	 * @param fallback
+	 *            what to use until the refill rate has been measured
+	 * @return how many points should be in the bottom buffer before enabling
+	 */
+	public int getPrefillPoints(int durationMs, int points, int fallback) {
+		int prefill;
+		if (refillPerMs < 0 || durationMs <= 0) {
+			prefill = fallback;
+		} else {
+			double drainPerMs = 1.0 / durationMs;
+			/* enough to cover a stall */
+			double needed = kCoverMs * drainPerMs;
+			if (refillPerMs < drainPerMs) {
+				/* and what the executer eats into the buffer over the MP */
+				needed += points * (1 - refillPerMs / drainPerMs);
+			}
+			prefill = (int) Math.ceil(needed);
+		}
+		return Math.max(1, Math.min(prefill, Math.min(points, kBtmBufferSize - 1)));
+	}
+
+	/**
+	 * @return ms of slack before an underrun, positive infinity when not
+	 *         executing. While the stream keeps up this is how long the Talon
+	 *         could go with no new points. When it doesn't, it is how long
+	 *         before the buffer runs dry minus how long the rest of the points
+	 *         take to arrive, so a negative margin means an underrun is coming.
+	 */
+	public double getMarginMs() {
+		return marginMs;
+	}
+
+	/** @return true if the last update() predicted an underrun */
+	public boolean isUnderrunPredicted() {
+		return marginMs < 0;
+	}
+
+	/** @return measured refill rate in points per ms, negative if not measured yet */
+	public double getRefillPerMs() {
+		return refillPerMs;
+	}
+}
@@ -0,0 +1,77 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctre.phoenix.motion.TrajectoryPoint.TrajectoryDuration;
+
+/**
+ * Per point costs: the unit conversions, the duration lookup, converting a
+ * whole side of a Path into a TrajectoryBuffer, and encoding one into points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+	/** Points in the profile converted by fromArray. */
+	@Param({"185", "1000", "5000"})
+	int points;
+
+	double[][] array;
+	TrajectoryBuffer buffer;
+	TrajectoryPointPool pool;
+	double feet = 12.5;
+	double fps = 7.25;
+	int durationMs = 50;
+
+	@Setup
+	public void setup() {
+		array = new double[points][];
+		for (int i = 0; i < points; ++i) {
+			array[i] = new double[] {i * 0.01, 5.0, 0.05};
+		}
+		buffer = TrajectoryBuffer.fromArray(array, null);
+		pool = new TrajectoryPointPool(points);
+	}
+
+	@Benchmark
+	public double ft2Units() {
+		return MotionProfileRunner.ft2Units(feet);
+	}
+
+	@Benchmark
+	public double fps2UnitsPerRev() {
+		return MotionProfileRunner.fps2UnitsPerRev(fps);
+	}
+
+	@Benchmark
+	public TrajectoryDuration getTrajectoryDuration() {
+		return MotionProfileRunner.GetTrajectoryDuration(durationMs);
+	}
+
+	@Benchmark
+	public TrajectoryBuffer fromArray() {
+		return TrajectoryBuffer.fromArray(array, null);
+	}
+
+	@Benchmark
+	public TrajectoryPointPool encode() {
+		pool.encode(buffer);
+		return pool;
+	}
+}
@@ -0,0 +1,60 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.TankModifier;
+
+/**
+ * What it costs to build MidSwitchLeft: Pathfinder.generate() plus
+ * TankModifier at each sample count, and the constructor itself (which goes
+ * through PathCache, so after the first run that is a cache hit).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathGenerationBenchmark {
+
+	/** SAMPLES_FAST, SAMPLES_LOW and SAMPLES_HIGH. */
+	@Param({"1000", "10000", "100000"})
+	int samples;
+
+	Waypoint[] points;
+	Trajectory.Config config;
+
+	@Setup
+	public void setup() {
+		MidSwitchLeft path = new MidSwitchLeft();
+		points = path.points;
+		config = new Trajectory.Config(path.config.fit, samples, path.config.dt,
+				path.config.max_velocity, path.config.max_acceleration, path.config.max_jerk);
+	}
+
+	@Benchmark
+	public TankModifier generate() {
+		Trajectory trajectory = Pathfinder.generate(points, config);
+		return new TankModifier(trajectory).modify(1.865);
+	}
+
+	@Benchmark
+	public Path construct() {
+		return new MidSwitchLeft();
+	}
+}
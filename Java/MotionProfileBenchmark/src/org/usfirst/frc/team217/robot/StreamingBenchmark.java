@@ -0,0 +1,216 @@
+package org.usfirst.frc.team217.robot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.SetValueMotionProfile;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * The runner's hot paths against SimulatedTalons: starting an MP (control()
+ * with a start pending, which is where startFilling() runs), a control() loop
+ * and a pump tick in the middle of streaming an MP, and what
+ * Instrumentation.process() costs when it records.
+ *
+ * The control() and pump tick benchmarks drive a started MP on a simulated
+ * clock the way MotionProfileSimulation does. Before each invocation the
+ * Talons are advanced, and everything else due run, up to the moment the
+ * measured call is due, so every call sees the buffers, the executer and the
+ * runner's state as they would be on the robot. The MP is restarted, outside
+ * the measurement, whenever it finishes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingBenchmark {
+
+	/** Points per profile. */
+	@Param({"185", "1000", "5000"})
+	int points;
+
+	/** Talons driven by the runner. */
+	@Param({"2", "6"})
+	int devices;
+
+	SimulatedTalon[] talons;
+	MotionProfileRunner runner;
+	MotionProfileStatus status = new MotionProfileStatus();
+
+	@Setup
+	public void setup() {
+		talons = talons(devices);
+		runner = new MotionProfileRunner(talons, profiles(points, devices), false);
+		talons[0].getMotionProfileStatus(status);
+	}
+
+	static SimulatedTalon[] talons(int devices) {
+		SimulatedTalon[] talons = new SimulatedTalon[devices];
+		for (int d = 0; d < devices; ++d) {
+			talons[d] = new SimulatedTalon();
+			talons[d].set(ControlMode.MotionProfile, SetValueMotionProfile.Disable.value);
+		}
+		return talons;
+	}
+
+	static TrajectoryBuffer[] profiles(int points, int devices) {
+		TrajectoryBuffer profile = new TrajectoryBuffer(points);
+		for (int i = 0; i < points; ++i) {
+			profile.add(i * 10.0, 100.0, 10, 0);
+		}
+		TrajectoryBuffer[] profiles = new TrajectoryBuffer[devices];
+		for (int d = 0; d < devices; ++d) {
+			profiles[d] = profile;
+		}
+		return profiles;
+	}
+
+	/**
+	 * An MP being streamed on a simulated clock: control() and set() every
+	 * {@value MotionProfileSimulation#kLoopPeriodMs}ms, the pump every period,
+	 * and the Talons advanced a ms at a time in between.
+	 */
+	static abstract class Streaming {
+		SimulatedTalon[] talons;
+		MotionProfileRunner runner;
+
+		long nowMs = 0;
+		long nextLoopMs = 0;
+		long nextPumpMs = 0;
+
+		void init(int points, int devices) {
+			talons = talons(devices);
+			runner = new MotionProfileRunner(talons, profiles(points, devices), false);
+			runner.setClock(() -> nowMs * 1000000);
+			restart();
+		}
+
+		/** Start the MP over, and run the loop that starts filling it. */
+		void restart() {
+			runner.reset();
+			runner.startMotionProfile();
+			loop();
+		}
+
+		/** What Robot.teleopPeriodic() does with button 5 held. */
+		void loop() {
+			runner.control();
+			apply();
+		}
+
+		/** Send the runner's output to the Talons, restarting a finished MP. */
+		void apply() {
+			SetValueMotionProfile setOutput = runner.getSetValue();
+			for (SimulatedTalon talon : talons) {
+				talon.set(ControlMode.MotionProfile, setOutput.value);
+			}
+			nextLoopMs = nowMs + MotionProfileSimulation.kLoopPeriodMs;
+			if (setOutput == SetValueMotionProfile.Hold)
+				restart();
+		}
+
+		void pump() {
+			runner.getPump().runOnce();
+			nextPumpMs = nowMs + runner.getPump().getPeriodMs();
+		}
+
+		/**
+		 * Simulate up to the next time a loop (or a pump tick) is due, running
+		 * the other one whenever it comes around, but not the one waited for.
+		 */
+		void runUntil(boolean loopDue) {
+			while (true) {
+				if (nowMs >= nextPumpMs) {
+					if (!loopDue)
+						return;
+					pump();
+				}
+				if (nowMs >= nextLoopMs) {
+					if (loopDue)
+						return;
+					loop();
+				}
+				for (SimulatedTalon talon : talons) {
+					talon.advance(1);
+				}
+				++nowMs;
+			}
+		}
+	}
+
+	/** Stops each invocation where control() is due. */
+	@State(Scope.Thread)
+	public static class Looping extends Streaming {
+		@Setup(Level.Trial)
+		public void setup(StreamingBenchmark benchmark) {
+			init(benchmark.points, benchmark.devices);
+		}
+
+		@Setup(Level.Invocation)
+		public void next() {
+			/* finish the loop measured last time, then wait for the next one */
+			if (nowMs >= nextLoopMs)
+				apply();
+			runUntil(true);
+		}
+	}
+
+	/** Stops each invocation where a pump tick is due. */
+	@State(Scope.Thread)
+	public static class Pumping extends Streaming {
+		@Setup(Level.Trial)
+		public void setup(StreamingBenchmark benchmark) {
+			init(benchmark.points, benchmark.devices);
+		}
+
+		@Setup(Level.Invocation)
+		public void next() {
+			if (nowMs >= nextPumpMs)
+				nextPumpMs = nowMs + runner.getPump().getPeriodMs();
+			runUntil(false);
+		}
+	}
+
+	@Benchmark
+	public SetValueMotionProfile startFilling() {
+		runner.reset();
+		runner.startMotionProfile();
+		runner.control();
+		return runner.getSetValue();
+	}
+
+	@Benchmark
+	public SetValueMotionProfile control(Looping streaming) {
+		streaming.runner.control();
+		return streaming.runner.getSetValue();
+	}
+
+	@Benchmark
+	public void pump(Pumping streaming) {
+		streaming.runner.getPump().runOnce();
+	}
+
+	/**
+	 * The copy into the ring that process() makes when it records, without
+	 * the rate limit that skips it on most calls.
+	 */
+	@Benchmark
+	public void instrumentationRecord() {
+		Instrumentation.fill(0, status, 1234.0, 56.0);
+	}
+}